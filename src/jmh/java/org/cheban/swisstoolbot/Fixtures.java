@@ -0,0 +1,30 @@
+package org.cheban.swisstoolbot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Recorded upstream responses from {@code src/jmh/resources/fixtures}.
+ */
+public final class Fixtures {
+  public static final String OWM_ONECALL = "owm-onecall.json";
+  public static final String OPEN_METEO_FORECAST = "open-meteo-forecast.json";
+  public static final String DDG_IMAGES = "ddg-images.json";
+  public static final String DDG_SEARCH = "ddg-search.html";
+
+  private Fixtures() {
+  }
+
+  public static String read(String name) {
+    try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+      if (in == null) {
+        throw new IllegalArgumentException("Missing fixture " + name);
+      }
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package org.cheban.swisstoolbot.bot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+public class ConfigOptionBenchmark {
+  @Param({"search_num", "search_num_img", "unknown"})
+  private String name;
+
+  @Benchmark
+  public ConfigOption find() {
+    return ConfigOption.find(name);
+  }
+}
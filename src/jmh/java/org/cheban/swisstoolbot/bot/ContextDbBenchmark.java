@@ -0,0 +1,90 @@
+package org.cheban.swisstoolbot.bot;
+
+import org.cheban.swisstoolbot.bot.state.CachedChatStateStore;
+import org.cheban.swisstoolbot.bot.state.ChatState;
+import org.cheban.swisstoolbot.bot.state.ChatStatePersistence;
+import org.cheban.swisstoolbot.bot.state.ChatStateStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hot tier only, the persistence discards everything so flushes don't add disk I/O.
+ */
+@State(Scope.Benchmark)
+public class ContextDbBenchmark {
+  private static final int CHATS = 1024;
+
+  private CachedChatStateStore store;
+  private ContextDb[] contextDbs;
+  private int next;
+
+  @Setup
+  public void setup() {
+    store = new CachedChatStateStore(new DiscardingPersistence(), Duration.ofHours(1));
+    contextDbs = new ContextDb[CHATS];
+    for (int i = 0; i < CHATS; i++) {
+      contextDbs[i] = new ContextDb(store, -1_000_000_000_000L - i, Set.of());
+      contextDbs[i].updateLocationData(52.52, 13.405, "Berlin, Germany");
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    store.close();
+  }
+
+  @Benchmark
+  public int getSearchNum() {
+    return contextDb().getSearchNum();
+  }
+
+  @Benchmark
+  public double getLocation() {
+    ContextDb contextDb = contextDb();
+    return contextDb.hasLocation() ? contextDb.getLocationLatitude() + contextDb.getLocationLongitude() : 0;
+  }
+
+  @Benchmark
+  public void setSearchNum() {
+    contextDb().setSearchNum(next & 15);
+  }
+
+  @Benchmark
+  public void updateLocationData() {
+    contextDb().updateLocationData(48.8566, 2.3522, "Paris, France");
+  }
+
+  private ContextDb contextDb() {
+    next = (next + 1) & (CHATS - 1);
+    return contextDbs[next];
+  }
+
+  private static final class DiscardingPersistence implements ChatStatePersistence {
+    @Override
+    public ChatState load(long chatId) {
+      return null;
+    }
+
+    @Override
+    public void store(Map<Long, ChatState> batch) {
+      // benchmarks measure the in-memory tier
+    }
+
+    @Override
+    public void forEach(ChatStateStore.Visitor visitor) {
+      // nothing is stored
+    }
+
+    @Override
+    public void close() {
+      // nothing to release
+    }
+  }
+}
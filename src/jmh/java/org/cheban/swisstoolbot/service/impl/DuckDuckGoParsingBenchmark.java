@@ -0,0 +1,31 @@
+package org.cheban.swisstoolbot.service.impl;
+
+import org.cheban.swisstoolbot.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.StringReader;
+
+@State(Scope.Benchmark)
+public class DuckDuckGoParsingBenchmark {
+  private static final String BASE_URI = "https://html.duckduckgo.com/html/?q=red+panda";
+
+  @Param({"5", "30"})
+  private int num;
+
+  private String html;
+
+  @Setup
+  public void setup() {
+    html = Fixtures.read(Fixtures.DDG_SEARCH);
+  }
+
+  @Benchmark
+  public int parseResults(Blackhole blackhole) {
+    return DuckDuckGoWebSearchService.parseResults(new StringReader(html), BASE_URI, num, blackhole::consume);
+  }
+}
@@ -0,0 +1,54 @@
+package org.cheban.swisstoolbot.service.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.cheban.swisstoolbot.Fixtures;
+import org.cheban.swisstoolbot.objects.Forecast;
+import org.cheban.swisstoolbot.util.JsonUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.StringReader;
+
+@State(Scope.Benchmark)
+public class JsonParsingBenchmark {
+  private String owm;
+  private String openMeteo;
+  private String ddgImages;
+
+  @Setup
+  public void setup() {
+    owm = Fixtures.read(Fixtures.OWM_ONECALL);
+    openMeteo = Fixtures.read(Fixtures.OPEN_METEO_FORECAST);
+    ddgImages = Fixtures.read(Fixtures.DDG_IMAGES);
+  }
+
+  @Benchmark
+  public Forecast openWeatherMap() {
+    return OpenWeatherMapService.parse(new StringReader(owm));
+  }
+
+  /**
+   * Full tree of the same document, the reference for the streaming parser's allocation.
+   */
+  @Benchmark
+  public JsonNode openWeatherMapTree() {
+    return JsonUtil.parseJsonNode(new StringReader(owm));
+  }
+
+  @Benchmark
+  public Forecast openMeteo() {
+    return OpenMeteoWeatherService.parse(new StringReader(openMeteo));
+  }
+
+  @Benchmark
+  public JsonNode openMeteoTree() {
+    return JsonUtil.parseJsonNode(new StringReader(openMeteo));
+  }
+
+  @Benchmark
+  public JsonNode duckDuckGoImages() {
+    return JsonUtil.parseJsonNode(new StringReader(ddgImages));
+  }
+}
@@ -0,0 +1,61 @@
+package org.cheban.swisstoolbot.service.impl;
+
+import org.cheban.swisstoolbot.Fixtures;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.cheban.swisstoolbot.objects.Forecast;
+import org.cheban.swisstoolbot.objects.Units;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.StringReader;
+import java.util.Locale;
+
+/**
+ * Message rendering only, the payloads are parsed once in the setup.
+ */
+@State(Scope.Benchmark)
+public class WeatherFormattingBenchmark {
+  private static final String NAME = "Berlin, Germany";
+
+  @Param({"full", "compact"})
+  private String template;
+
+  @Param({"METRIC", "IMPERIAL"})
+  private Units units;
+
+  private Forecast owm;
+  private Forecast openMeteo;
+  private ForecastRenderer renderer;
+  private final StringBuilder sb = new StringBuilder(512);
+
+  @Setup
+  public void setup() {
+    owm = OpenWeatherMapService.parse(new StringReader(Fixtures.read(Fixtures.OWM_ONECALL)));
+    openMeteo = OpenMeteoWeatherService.parse(new StringReader(Fixtures.read(Fixtures.OPEN_METEO_FORECAST)));
+    BotProperties.Template t = new BotProperties.Forecast().getTemplates().get(template);
+    renderer = new ForecastRenderer(t.getHeader(), t.getDay(), units, Locale.ENGLISH);
+  }
+
+  @Benchmark
+  public String openWeatherMap() {
+    return renderer.render(NAME, owm);
+  }
+
+  @Benchmark
+  public String openMeteo() {
+    return renderer.render(NAME, openMeteo);
+  }
+
+  /**
+   * Rendering into a reused builder, without the final copy into a String.
+   */
+  @Benchmark
+  public StringBuilder openWeatherMapReusedBuilder() {
+    sb.setLength(0);
+    renderer.renderTo(sb, NAME, owm);
+    return sb;
+  }
+}
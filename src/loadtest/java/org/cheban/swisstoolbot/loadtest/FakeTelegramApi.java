@@ -0,0 +1,248 @@
+package org.cheban.swisstoolbot.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal Bot API server: hands out queued updates through {@code getUpdates} long polling and answers every
+ * outgoing call with a plausible result, reporting each call to the registered listeners.
+ */
+public class FakeTelegramApi implements AutoCloseable {
+  public static final long BOT_ID = 1;
+  public static final String BOT_USERNAME = "loadtest_bot";
+  private static final long MAX_POLL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+  private static final Pattern MULTIPART_CHAT_ID = Pattern.compile("name=\"chat_id\"\\r?\\n(?:[^\\r\\n]+\\r?\\n)*\\r?\\n([^\\r\\n]+)");
+
+  @FunctionalInterface
+  public interface CallListener {
+    void onCall(String method, long chatId, long nanoTime);
+  }
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final HttpServer server;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition updatesAvailable = lock.newCondition();
+  private final Deque<ObjectNode> updates = new ArrayDeque<>();
+  private final AtomicLong updateIds = new AtomicLong();
+  private final AtomicLong messageIds = new AtomicLong();
+  private final List<CallListener> listeners = new CopyOnWriteArrayList<>();
+  private final Map<String, LongAdder> calls = new ConcurrentHashMap<>();
+
+  public FakeTelegramApi() {
+    try {
+      this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    server.createContext("/", this::handle);
+  }
+
+  public FakeTelegramApi start() {
+    server.start();
+    return this;
+  }
+
+  /**
+   * Base URL for {@code bot.api-base-url}.
+   */
+  public String baseUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/bot";
+  }
+
+  public void addListener(CallListener listener) {
+    listeners.add(listener);
+  }
+
+  public Map<String, LongAdder> calls() {
+    return calls;
+  }
+
+  public int pendingUpdates() {
+    lock.lock();
+    try {
+      return updates.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Queues a private text message from {@code userId} in {@code chatId}.
+   */
+  public void sendText(long chatId, long userId, String text) {
+    ObjectNode update = mapper.createObjectNode();
+    update.put("update_id", updateIds.incrementAndGet());
+    ObjectNode message = update.putObject("message");
+    message.put("message_id", messageIds.incrementAndGet());
+    message.put("date", System.currentTimeMillis() / 1000);
+    message.set("chat", chat(chatId));
+    ObjectNode from = message.putObject("from");
+    from.put("id", userId);
+    from.put("is_bot", false);
+    from.put("first_name", "Load");
+    from.put("username", "load" + userId);
+    message.put("text", text);
+    if (text.startsWith("/")) {
+      int end = text.indexOf(' ');
+      ObjectNode entity = message.putArray("entities").addObject();
+      entity.put("type", "bot_command");
+      entity.put("offset", 0);
+      entity.put("length", end < 0 ? text.length() : end);
+    }
+
+    lock.lock();
+    try {
+      updates.add(update);
+      updatesAvailable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody()) {
+      byte[] body = in.readAllBytes();
+      String path = exchange.getRequestURI().getPath();
+      String method = path.substring(path.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+      JsonNode result = switch (method) {
+        case "getupdates" -> getUpdates(json(exchange, body));
+        case "getme" -> user();
+        case "deletewebhook", "setmycommands", "deletemycommands", "sendchataction" -> mapper.getNodeFactory().booleanNode(true);
+        default -> outgoing(method, chatId(exchange, body));
+      };
+
+      ObjectNode response = mapper.createObjectNode();
+      response.put("ok", true);
+      response.set("result", result);
+      byte[] bytes = mapper.writeValueAsBytes(response);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private JsonNode getUpdates(JsonNode request) throws InterruptedException {
+    long offset = request.path("offset").asLong(0);
+    int limit = request.path("limit").asInt(100);
+    long timeoutMillis = Math.min(TimeUnit.SECONDS.toMillis(request.path("timeout").asLong(0)), MAX_POLL_MILLIS);
+    ArrayNode result = mapper.createArrayNode();
+    lock.lock();
+    try {
+      // updates below the offset are confirmed
+      while (!updates.isEmpty() && updates.peekFirst().get("update_id").asLong() < offset) {
+        updates.pollFirst();
+      }
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      while (updates.isEmpty()) {
+        long left = deadline - System.nanoTime();
+        if (left <= 0) {
+          return result;
+        }
+        updatesAvailable.awaitNanos(left);
+      }
+      for (ObjectNode update : updates) {
+        if (result.size() >= limit) {
+          break;
+        }
+        result.add(update);
+      }
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private JsonNode outgoing(String method, long chatId) {
+    long now = System.nanoTime();
+    calls.computeIfAbsent(method, m -> new LongAdder()).increment();
+    listeners.forEach(l -> l.onCall(method, chatId, now));
+
+    if ("sendmediagroup".equals(method)) {
+      ArrayNode messages = mapper.createArrayNode();
+      messages.add(message(chatId));
+      return messages;
+    }
+    return message(chatId);
+  }
+
+  private ObjectNode message(long chatId) {
+    ObjectNode message = mapper.createObjectNode();
+    message.put("message_id", messageIds.incrementAndGet());
+    message.put("date", System.currentTimeMillis() / 1000);
+    message.set("chat", chat(chatId));
+    message.set("from", user());
+    message.put("text", "");
+    return message;
+  }
+
+  private ObjectNode chat(long chatId) {
+    ObjectNode chat = mapper.createObjectNode();
+    chat.put("id", chatId);
+    chat.put("type", "private");
+    return chat;
+  }
+
+  private ObjectNode user() {
+    ObjectNode user = mapper.createObjectNode();
+    user.put("id", BOT_ID);
+    user.put("is_bot", true);
+    user.put("first_name", "Load Test");
+    user.put("username", BOT_USERNAME);
+    return user;
+  }
+
+  private JsonNode json(HttpExchange exchange, byte[] body) throws IOException {
+    String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+    if (body.length == 0 || contentType == null || !contentType.startsWith("application/json")) {
+      return mapper.createObjectNode();
+    }
+    return mapper.readTree(body);
+  }
+
+  private long chatId(HttpExchange exchange, byte[] body) throws IOException {
+    String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+    if (contentType != null && contentType.startsWith("multipart/form-data")) {
+      Matcher m = MULTIPART_CHAT_ID.matcher(new String(body, StandardCharsets.UTF_8));
+      return m.find() ? Long.parseLong(m.group(1).trim()) : 0;
+    }
+    return json(exchange, body).path("chat_id").asLong(0);
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+}
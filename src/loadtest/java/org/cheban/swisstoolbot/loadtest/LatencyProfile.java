@@ -0,0 +1,46 @@
+package org.cheban.swisstoolbot.loadtest;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Response delay and failure rate of a stub. The delay is log-normal, fitted to the given median and p99.
+ * Written as {@code median:p99:errorRate}, e.g. {@code 80ms:600ms:0.02}.
+ */
+public record LatencyProfile(Duration median, Duration p99, double errorRate) {
+  private static final double Z_99 = 2.326;
+
+  public static final LatencyProfile NONE = new LatencyProfile(Duration.ZERO, Duration.ZERO, 0);
+
+  public static LatencyProfile parse(String value) {
+    String[] parts = value.split(":");
+    if (parts.length != 3) {
+      throw new IllegalArgumentException("Expected median:p99:errorRate, got " + value);
+    }
+    return new LatencyProfile(parseDuration(parts[0]), parseDuration(parts[1]), Double.parseDouble(parts[2]));
+  }
+
+  public long sampleMillis() {
+    long median = this.median.toMillis();
+    if (median <= 0) {
+      return 0;
+    }
+    double sigma = Math.log(Math.max(p99.toMillis(), median) / (double) median) / Z_99;
+    return Math.round(median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+  }
+
+  public boolean sampleError() {
+    return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+  }
+
+  static Duration parseDuration(String value) {
+    String v = value.trim().toLowerCase();
+    if (v.endsWith("ms")) {
+      return Duration.ofMillis(Long.parseLong(v.substring(0, v.length() - 2)));
+    }
+    if (v.endsWith("s")) {
+      return Duration.ofSeconds(Long.parseLong(v.substring(0, v.length() - 1)));
+    }
+    return Duration.ofMillis(Long.parseLong(v));
+  }
+}
@@ -0,0 +1,219 @@
+package org.cheban.swisstoolbot.loadtest;
+
+import org.cheban.swisstoolbot.SwissToolBotApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives the bot against {@link FakeTelegramApi} and {@link Upstreams}, all on the loopback interface.
+ * Commands arrive open loop at {@code rate} per second, each one in a fresh chat, and a command counts as done
+ * when the bot makes its first outgoing call to that chat.
+ * <p>
+ * Arguments are {@code key=value}:
+ * <ul>
+ *   <li>{@code rate=20}, {@code duration=60s}, {@code warmup=10s}, {@code timeout=30s}</li>
+ *   <li>{@code mix=s:30,i:20,w:30,l:15,doc:5} - relative weights of the abilities</li>
+ *   <li>{@code distinct=50} - number of different queries and locations</li>
+ *   <li>{@code profile.<stub>=median:p99:errorRate}, stubs are ddg, images, owm, openmeteo, positionstack</li>
+ *   <li>{@code bot.*} - passed to the bot as Spring properties</li>
+ * </ul>
+ */
+public class LoadTest {
+  private static final long USER_ID = 1000;
+  private static final long FIRST_CHAT_ID = 1_000_000;
+  private static final String[] QUERIES = {"red panda", "weather radar", "java virtual threads", "telegram bot api",
+          "spring boot", "mountain lake", "city skyline", "northern lights"};
+
+  private final Map<String, String> args;
+  private final Map<String, Integer> mix = new LinkedHashMap<>();
+  private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+  private final Map<String, AbilityStats> stats = new LinkedHashMap<>();
+  private final AtomicLong chatIds = new AtomicLong(FIRST_CHAT_ID);
+  private volatile boolean measuring;
+
+  private LoadTest(Map<String, String> args) {
+    this.args = args;
+    for (String weight : args.getOrDefault("mix", "s:30,i:20,w:30,l:15,doc:5").split(",")) {
+      String[] kv = weight.split(":");
+      mix.put(kv[0], Integer.parseInt(kv[1]));
+      stats.put(kv[0], new AbilityStats());
+    }
+  }
+
+  public static void main(String[] argv) throws Exception {
+    Map<String, String> args = new HashMap<>();
+    for (String arg : argv) {
+      String[] kv = arg.split("=", 2);
+      args.put(kv[0], kv.length > 1 ? kv[1] : "");
+    }
+    new LoadTest(args).run();
+    System.exit(0);
+  }
+
+  private void run() throws Exception {
+    Map<String, LatencyProfile> profiles = new HashMap<>();
+    args.forEach((k, v) -> {
+      if (k.startsWith("profile.")) {
+        profiles.put(k.substring("profile.".length()), LatencyProfile.parse(v));
+      }
+    });
+
+    try (FakeTelegramApi telegram = new FakeTelegramApi().start();
+         Upstreams upstreams = new Upstreams(profiles)) {
+      telegram.addListener(this::onCall);
+      try (ConfigurableApplicationContext ignored = startBot(telegram, upstreams)) {
+        drive(telegram);
+      }
+      report(telegram, upstreams);
+    }
+  }
+
+  private ConfigurableApplicationContext startBot(FakeTelegramApi telegram, Upstreams upstreams) throws Exception {
+    Path dir = Files.createTempDirectory("swisstoolbot-loadtest");
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("bot.token", "loadtest");
+    properties.put("bot.username", FakeTelegramApi.BOT_USERNAME);
+    properties.put("bot.creator-id", USER_ID);
+    properties.put("bot.whitelist", USER_ID);
+    properties.put("bot.position-stack-token", "loadtest");
+    properties.put("bot.open-weather-map-token", "loadtest");
+    properties.put("bot.api-base-url", telegram.baseUrl());
+    properties.put("bot.geocode-cache.file", dir.resolve("geocode-cache.json").toString());
+    properties.put("bot.state.file", dir.resolve("chat-state.log").toString());
+    // /doc downloads through the upstream stubs, the hosts are overridden so the address check lets them through
+    properties.put("bot.documents.mode", "FETCH");
+    upstreams.hostOverrides().forEach((host, url) -> properties.put("bot.http.host-overrides[" + host + "]", url));
+    args.forEach((k, v) -> {
+      if (k.startsWith("bot.")) {
+        properties.put(k, v);
+      }
+    });
+
+    return new SpringApplicationBuilder(SwissToolBotApplication.class)
+            .web(WebApplicationType.NONE)
+            .properties(properties)
+            .run();
+  }
+
+  private void drive(FakeTelegramApi telegram) throws InterruptedException {
+    double rate = Double.parseDouble(args.getOrDefault("rate", "20"));
+    Duration warmup = duration("warmup", "10s");
+    Duration duration = duration("duration", "60s");
+    Duration timeout = duration("timeout", "30s");
+    int distinct = Integer.parseInt(args.getOrDefault("distinct", "50"));
+    int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+
+    ScheduledExecutorService arrivals = Executors.newSingleThreadScheduledExecutor();
+    arrivals.scheduleAtFixedRate(() -> {
+      String ability = pick(totalWeight);
+      long chatId = chatIds.incrementAndGet();
+      pending.put(chatId, new Pending(ability, System.nanoTime(), measuring));
+      telegram.sendText(chatId, USER_ID, command(ability, ThreadLocalRandom.current().nextInt(distinct)));
+    }, 0, Math.max(1, Math.round(1e6 / rate)), TimeUnit.MICROSECONDS);
+
+    System.out.printf("Warming up for %ss%n", warmup.toSeconds());
+    Thread.sleep(warmup.toMillis());
+    measuring = true;
+    long start = System.nanoTime();
+    System.out.printf("Measuring %.1f commands/s for %ss%n", rate, duration.toSeconds());
+    Thread.sleep(duration.toMillis());
+    measuring = false;
+    arrivals.shutdownNow();
+    long elapsed = System.nanoTime() - start;
+    stats.values().forEach(s -> s.elapsedNanos = elapsed);
+
+    long deadline = System.nanoTime() + timeout.toNanos();
+    while (pending.values().stream().anyMatch(Pending::measured) && System.nanoTime() < deadline) {
+      Thread.sleep(100);
+    }
+    pending.values().stream().filter(Pending::measured).forEach(p -> stats.get(p.ability()).timeouts++);
+  }
+
+  private void onCall(String method, long chatId, long nanoTime) {
+    Pending p = pending.remove(chatId);
+    if (p != null && p.measured()) {
+      AbilityStats s = stats.get(p.ability());
+      synchronized (s) {
+        s.latencies.add(nanoTime - p.startNanos());
+      }
+    }
+  }
+
+  private String pick(int totalWeight) {
+    int r = ThreadLocalRandom.current().nextInt(totalWeight);
+    for (Map.Entry<String, Integer> e : mix.entrySet()) {
+      r -= e.getValue();
+      if (r < 0) {
+        return e.getKey();
+      }
+    }
+    throw new IllegalStateException();
+  }
+
+  private static String command(String ability, int variant) {
+    String query = QUERIES[variant % QUERIES.length] + (variant >= QUERIES.length ? " " + variant : "");
+    // spread locations over cells of about a kilometer
+    String coordinates = String.format("%.4f,%.4f", 52.52 + variant * 0.01, 13.405 + variant * 0.01);
+    return switch (ability) {
+      case "s", "i" -> "/" + ability + " " + query;
+      case "w", "l" -> "/" + ability + " " + coordinates;
+      case "doc" -> "/doc https://files.loadtest/report-" + variant + ".pdf";
+      default -> "/" + ability;
+    };
+  }
+
+  private void report(FakeTelegramApi telegram, Upstreams upstreams) {
+    System.out.printf("%n%-8s %8s %8s %8s %10s %10s %10s %10s%n",
+            "ability", "sent", "done", "timeout", "done/s", "p50 ms", "p99 ms", "max ms");
+    stats.forEach((ability, s) -> {
+      long[] sorted = s.latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+      System.out.printf("%-8s %8d %8d %8d %10.2f %10.1f %10.1f %10.1f%n", "/" + ability,
+              sorted.length + s.timeouts, sorted.length, s.timeouts,
+              s.elapsedNanos > 0 ? sorted.length / (s.elapsedNanos / 1e9) : 0,
+              percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 1.0));
+    });
+
+    System.out.printf("%nBot API calls:%n");
+    telegram.calls().forEach((method, count) -> System.out.printf("  %-20s %8d%n", method, count.sum()));
+    System.out.printf("%nUpstreams:%n");
+    upstreams.stubs().forEach((name, stub) ->
+            System.out.printf("  %-20s %8d requests %8d errors%n", name, stub.requests(), stub.errors()));
+  }
+
+  private static double percentile(long[] sorted, double p) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(p * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+  }
+
+  private Duration duration(String key, String defaultValue) {
+    return LatencyProfile.parseDuration(args.getOrDefault(key, defaultValue));
+  }
+
+  private record Pending(String ability, long startNanos, boolean measured) {
+  }
+
+  private static final class AbilityStats {
+    private final List<Long> latencies = new ArrayList<>();
+    private long timeouts;
+    private long elapsedNanos;
+  }
+}
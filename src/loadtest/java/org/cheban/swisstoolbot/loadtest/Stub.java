@@ -0,0 +1,124 @@
+package org.cheban.swisstoolbot.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for one upstream host, answering with canned bodies after a delay drawn from its {@link LatencyProfile}.
+ */
+public class Stub implements AutoCloseable {
+  private final String name;
+  private final HttpServer server;
+  private final Map<String, Route> routes = new LinkedHashMap<>();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private volatile LatencyProfile profile = LatencyProfile.NONE;
+
+  public Stub(String name) {
+    this.name = name;
+    try {
+      this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    server.createContext("/", this::handle);
+  }
+
+  public Stub route(String pathPrefix, String contentType, byte[] body) {
+    routes.put(pathPrefix, new Route(contentType, body));
+    return this;
+  }
+
+  public Stub route(String pathPrefix, String contentType, String body) {
+    return route(pathPrefix, contentType, body.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public Stub profile(LatencyProfile profile) {
+    this.profile = profile;
+    return this;
+  }
+
+  public Stub start() {
+    server.start();
+    return this;
+  }
+
+  public String name() {
+    return name;
+  }
+
+  public String baseUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  public long requests() {
+    return requests.sum();
+  }
+
+  public long errors() {
+    return errors.sum();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    requests.increment();
+    try (InputStream in = exchange.getRequestBody()) {
+      in.readAllBytes();
+      Thread.sleep(profile.sampleMillis());
+
+      Route route = route(exchange.getRequestURI().getPath());
+      if (route == null || profile.sampleError()) {
+        errors.increment();
+        exchange.sendResponseHeaders(route == null ? 404 : 503, -1);
+        return;
+      }
+
+      exchange.getResponseHeaders().set("Content-Type", route.contentType());
+      if ("HEAD".equals(exchange.getRequestMethod())) {
+        exchange.getResponseHeaders().set("Content-Length", Long.toString(route.body().length));
+        exchange.sendResponseHeaders(200, -1);
+        return;
+      }
+      exchange.sendResponseHeaders(200, route.body().length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(route.body());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private Route route(String path) {
+    // the longest matching prefix wins
+    Route match = null;
+    int matchLength = -1;
+    for (Map.Entry<String, Route> e : routes.entrySet()) {
+      if (path.startsWith(e.getKey()) && e.getKey().length() > matchLength) {
+        match = e.getValue();
+        matchLength = e.getKey().length();
+      }
+    }
+    return match;
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+
+  private record Route(String contentType, byte[] body) {
+  }
+}
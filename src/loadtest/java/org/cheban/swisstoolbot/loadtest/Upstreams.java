@@ -0,0 +1,87 @@
+package org.cheban.swisstoolbot.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Stubs for every external host the bot talks to, serving the recorded fixtures.
+ */
+public class Upstreams implements AutoCloseable {
+  public static final String DDG = "ddg";
+  public static final String IMAGES = "images";
+  public static final String OWM = "owm";
+  public static final String OPEN_METEO = "openmeteo";
+  public static final String POSITIONSTACK = "positionstack";
+  private static final String IMAGES_HOST = "images.loadtest";
+  private static final int IMAGE_RESULTS = 100;
+  private static final int IMAGE_SIZE = 48 * 1024;
+
+  private final Map<String, Stub> stubs = new LinkedHashMap<>();
+
+  public Upstreams(Map<String, LatencyProfile> profiles) {
+    add(new Stub(DDG)
+            .route("/", "text/html; charset=utf-8", "<html><script>DDG.deep.initialize('/d.js?q=red+panda&vqd=4-211536127849219372658739283746&kl=wt-wt');</script></html>")
+            .route("/html/", "text/html; charset=utf-8", fixture("ddg-search.html"))
+            .route("/i.js", "application/json", imageResults()));
+    add(new Stub(IMAGES).route("/img/", "image/jpeg", new byte[IMAGE_SIZE]));
+    add(new Stub(OWM).route("/data/3.0/onecall", "application/json", fixture("owm-onecall.json")));
+    add(new Stub(OPEN_METEO).route("/v1/forecast", "application/json", fixture("open-meteo-forecast.json")));
+    add(new Stub(POSITIONSTACK).route("/v1/", "application/json", """
+            {"data":[{"latitude":52.52,"longitude":13.405,"name":"Berlin","locality":"Berlin","region":"Berlin",\
+            "country":"Germany","label":"Berlin, Germany"}]}"""));
+    stubs.forEach((name, stub) -> stub.profile(profiles.getOrDefault(name, LatencyProfile.NONE)).start());
+  }
+
+  public Map<String, Stub> stubs() {
+    return stubs;
+  }
+
+  /**
+   * Values for {@code bot.http.host-overrides}.
+   */
+  public Map<String, String> hostOverrides() {
+    Map<String, String> overrides = new LinkedHashMap<>();
+    overrides.put("duckduckgo.com", stubs.get(DDG).baseUrl());
+    overrides.put("html.duckduckgo.com", stubs.get(DDG).baseUrl());
+    overrides.put(IMAGES_HOST, stubs.get(IMAGES).baseUrl());
+    overrides.put("api.openweathermap.org", stubs.get(OWM).baseUrl());
+    overrides.put("api.open-meteo.com", stubs.get(OPEN_METEO).baseUrl());
+    overrides.put("api.positionstack.com", stubs.get(POSITIONSTACK).baseUrl());
+    return overrides;
+  }
+
+  @Override
+  public void close() {
+    stubs.values().forEach(Stub::close);
+  }
+
+  private void add(Stub stub) {
+    stubs.put(stub.name(), stub);
+  }
+
+  private static String imageResults() {
+    List<String> results = IntStream.range(0, IMAGE_RESULTS)
+            .mapToObj(i -> String.format(
+                    "{\"image\":\"https://%1$s/img/%2$d.jpg\",\"url\":\"https://www.example.org/red-panda-%2$d\",\"title\":\"Red panda %2$d\",\"width\":1200,\"height\":800}",
+                    IMAGES_HOST, i))
+            .toList();
+    return results.stream().collect(Collectors.joining(",", "{\"results\":[", "]}"));
+  }
+
+  private static byte[] fixture(String name) {
+    try (InputStream in = Upstreams.class.getResourceAsStream("/fixtures/" + name)) {
+      if (in == null) {
+        throw new IllegalArgumentException("Missing fixture " + name);
+      }
+      return in.readAllBytes();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
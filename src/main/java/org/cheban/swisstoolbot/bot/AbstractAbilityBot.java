@@ -2,31 +2,63 @@ package org.cheban.swisstoolbot.bot;
 
 import lombok.extern.slf4j.Slf4j;
 import org.cheban.swisstoolbot.objects.ImageResult;
+import org.cheban.swisstoolbot.service.impl.DocumentFetcher;
+import org.cheban.swisstoolbot.service.impl.MediaCache;
 import org.cheban.swisstoolbot.util.HtmlUtil;
 import org.telegram.abilitybots.api.bot.AbilityBot;
+import org.telegram.abilitybots.api.db.DBContext;
 import org.telegram.abilitybots.api.objects.MessageContext;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
 import org.telegram.telegrambots.meta.api.methods.send.SendMediaGroup;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
 import org.telegram.telegrambots.meta.api.objects.InputFile;
+import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.media.InputMedia;
 import org.telegram.telegrambots.meta.api.objects.media.InputMediaPhoto;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @Slf4j
 public abstract class AbstractAbilityBot extends AbilityBot {
+  protected static final int MESSAGE_LENGTH_LIMIT = 4096;
+  private static final Duration PROGRESSIVE_EDIT_INTERVAL = Duration.ofMillis(500);
+
   private final long creatorId;
+  private final OutboundQueue outboundQueue;
+  private final MediaCache mediaCache;
+  private final LongAdder savedApiCalls = new LongAdder();
 
-  protected AbstractAbilityBot(String botToken, String botUsername, long creatorId) {
-    super(botToken, botUsername);
+  protected AbstractAbilityBot(String botToken, String botUsername, DBContext db, long creatorId,
+                               OutboundQueue outboundQueue, MediaCache mediaCache, DefaultBotOptions botOptions) {
+    super(botToken, botUsername, db, botOptions);
     this.creatorId = creatorId;
+    this.outboundQueue = outboundQueue;
+    this.mediaCache = mediaCache;
   }
 
   public long creatorId() {
     return creatorId;
   }
 
+  public long savedApiCalls() {
+    return savedApiCalls.sum();
+  }
+
   protected void checkArguments(MessageContext ctx) {
     if (ctx.arguments().length == 0) {
       this.sendText(ctx.chatId(), "No arguments provided");
@@ -35,24 +67,47 @@ public abstract class AbstractAbilityBot extends AbilityBot {
   }
 
   protected void sendText(Long chatId, String msg) {
-    this.silent.execute(SendMessage.builder()
+    this.sendMessage(SendMessage.builder()
             .chatId(Long.toString(chatId))
             .text(msg)
             .build());
   }
 
+  protected void sendMessage(SendMessage method) {
+    this.enqueue(method.getChatId(), OutboundQueue.Priority.TEXT, method.getMethod(), () -> this.execute(method));
+  }
+
   protected void sendHtml(Long chatId, String msgHtml) {
-    this.silent.execute(SendMessage.builder()
+    this.sendHtmlMessage(chatId, msgHtml);
+  }
+
+  protected Optional<Message> sendHtmlMessage(Long chatId, String msgHtml) {
+    SendMessage method = SendMessage.builder()
             .chatId(Long.toString(chatId))
             .text(msgHtml)
             .parseMode("HTML")
-            .build());
+            .build();
+    return this.await(this.enqueue(method.getChatId(), OutboundQueue.Priority.TEXT, method.getMethod(),
+            () -> this.execute(method)));
   }
 
+  protected void editHtml(Long chatId, Integer messageId, String msgHtml) {
+    EditMessageText method = EditMessageText.builder()
+            .chatId(Long.toString(chatId))
+            .messageId(messageId)
+            .text(msgHtml)
+            .parseMode("HTML")
+            .build();
+    this.enqueue(method.getChatId(), OutboundQueue.Priority.TEXT, method.getMethod(), () -> this.execute(method));
+  }
+
+  /**
+   * Media of an image already sent once is its Telegram {@code file_id}, otherwise the source URL.
+   */
   protected InputMedia buildImageMedia(ImageResult image) {
     log.info("[buildImageMedia] {}", image.src());
     return InputMediaPhoto.builder()
-            .media(image.src())
+            .media(mediaCache.fileId(MediaCache.Kind.PHOTO, image.src()).orElse(image.src()))
             .caption(HtmlUtil.buildLink(image.url(), image.title()))
             .parseMode("HTML")
             .build();
@@ -61,35 +116,248 @@ public abstract class AbstractAbilityBot extends AbilityBot {
   protected SendPhoto.SendPhotoBuilder buildSendPhoto(ImageResult image) {
     log.info("[buildSendPhoto] {}", image.src());
     return SendPhoto.builder()
-            .photo(new InputFile(image.src()))
+            .photo(new InputFile(mediaCache.fileId(MediaCache.Kind.PHOTO, image.src()).orElse(image.src())))
             .caption(HtmlUtil.buildLink(image.url(), image.title()))
             .parseMode("HTML");
   }
 
-  protected boolean silentSendMediaGroup(SendMediaGroup method) {
+  protected SendDocument.SendDocumentBuilder buildSendDocument(ImageResult image) {
+    log.info("[buildSendDocument] {}", image.src());
+    return SendDocument.builder()
+            .document(new InputFile(mediaCache.fileId(MediaCache.Kind.DOCUMENT, image.src()).orElse(image.src())))
+            .caption(HtmlUtil.buildLink(image.url(), image.title()))
+            .parseMode("HTML");
+  }
+
+  /**
+   * Sends media built from {@code sources} in the same order. The file ids of the sent photos are remembered;
+   * if the group fails, the cached ids it used are dropped so a retry goes by URL.
+   */
+  protected boolean silentSendMediaGroup(SendMediaGroup method, List<String> sources) {
+    Optional<List<Message>> messages = this.await(this.enqueue(method.getChatId(), OutboundQueue.Priority.MEDIA,
+            "sendMediaGroup", () -> this.execute(method)));
+    for (int i = 0; i < sources.size(); i++) {
+      String source = sources.get(i);
+      if (messages.isPresent() && i < messages.get().size()) {
+        mediaCache.put(MediaCache.Kind.PHOTO, source, photoFileId(messages.get().get(i)));
+      } else if (!source.equals(method.getMedias().get(i).getMedia())) {
+        mediaCache.invalidate(MediaCache.Kind.PHOTO, source);
+      }
+    }
+    return messages.isPresent();
+  }
+
+  protected void silentSendPhoto(SendPhoto method, String source) {
+    boolean cached = !source.equals(method.getPhoto().getAttachName());
+    this.enqueue(method.getChatId(), OutboundQueue.Priority.MEDIA, "sendPhoto", () -> this.execute(method))
+            .whenComplete((message, e) -> {
+              if (e == null) {
+                mediaCache.put(MediaCache.Kind.PHOTO, source, photoFileId(message));
+              } else if (cached) {
+                log.warn("[sendPhoto] Cached file id of {} refused, sending the URL", source);
+                mediaCache.invalidate(MediaCache.Kind.PHOTO, source);
+                method.setPhoto(new InputFile(source));
+                this.silentSendPhoto(method, source);
+              }
+            });
+  }
+
+  protected void silentSendDocument(SendDocument method, String source) {
+    boolean cached = !source.equals(method.getDocument().getAttachName());
+    this.enqueue(method.getChatId(), OutboundQueue.Priority.MEDIA, "sendDocument", () -> this.execute(method))
+            .whenComplete((message, e) -> {
+              if (e == null) {
+                this.rememberDocument(source, message);
+              } else if (cached) {
+                log.warn("[sendDocument] Cached file id of {} refused, sending the URL", source);
+                mediaCache.invalidate(MediaCache.Kind.DOCUMENT, source);
+                method.setDocument(new InputFile(source));
+                this.silentSendDocument(method, source);
+              }
+            });
+  }
+
+  /**
+   * Uploads the document downloaded from {@code source} to {@code file}, which is deleted once the call is done.
+   */
+  protected void silentUploadDocument(SendDocument method, String source, Path file) {
+    this.enqueue(method.getChatId(), OutboundQueue.Priority.MEDIA, "sendDocument", () -> this.execute(method))
+            .whenComplete((message, e) -> {
+              if (e == null) {
+                this.rememberDocument(source, message);
+              }
+              DocumentFetcher.delete(file);
+            });
+  }
+
+  private void rememberDocument(String source, Message message) {
+    if (message != null && message.getDocument() != null) {
+      mediaCache.put(MediaCache.Kind.DOCUMENT, source, message.getDocument().getFileId());
+    }
+  }
+
+  /**
+   * Telegram lists the sizes of a photo smallest first, the last one is the original.
+   */
+  private static String photoFileId(Message message) {
+    if (message == null || message.getPhoto() == null || message.getPhoto().isEmpty()) {
+      return null;
+    }
+    return message.getPhoto().get(message.getPhoto().size() - 1).getFileId();
+  }
+
+  private <T> CompletableFuture<T> enqueue(String chatId, OutboundQueue.Priority priority, String methodName,
+                                           Callable<T> call) {
+    return outboundQueue.submit(chatKey(chatId), priority, methodName.toLowerCase(Locale.ROOT), call)
+            .whenComplete((result, e) -> {
+              if (e != null) {
+                log.error("Could not {}", methodName, e);
+              }
+            });
+  }
+
+  private <T> Optional<T> await(CompletableFuture<T> future) {
     try {
-      this.execute(method);
-      return true;
-    } catch (TelegramApiException e) {
-      log.error("Could not sendMediaGroup", e);
-      return false;
+      return Optional.ofNullable(future.join());
+    } catch (CompletionException | CancellationException e) {
+      return Optional.empty();
     }
   }
 
-  protected void silentSendPhoto(SendPhoto method) {
+  private static long chatKey(String chatId) {
     try {
-      this.execute(method);
-    } catch (TelegramApiException e) {
-      log.error("Could not send photo", e);
+      return Long.parseLong(chatId);
+    } catch (NumberFormatException e) {
+      return chatId.hashCode();
     }
+  }
 
+  /**
+   * A reply that needed more calls than fragments saved nothing, the counter only ever grows.
+   */
+  private void recordBatch(int fragments, int apiCalls) {
+    savedApiCalls.add(Math.max(0, fragments - apiCalls));
   }
 
-  protected void silentSendDocument(SendDocument method) {
-    try {
-      this.execute(method);
-    } catch (TelegramApiException e) {
-      log.error("Could not sendDocument", e);
+  /**
+   * HTML message that grows as fragments arrive: the first fragment is sent right away,
+   * later ones are added by editing the message at most once per {@code PROGRESSIVE_EDIT_INTERVAL}.
+   * A new message is started when the next fragment would not fit into {@link #MESSAGE_LENGTH_LIMIT}.
+   * <p>
+   * {@link #append} only queues the fragment, a virtual thread sends it. Fragments often come from a parser reading
+   * an HTTP body, which must not wait for the chat's rate limit while the body's read deadline runs.
+   */
+  protected class ProgressiveHtmlReply {
+    private static final Fragment END = new Fragment(null);
+
+    private final Long chatId;
+    private final BlockingQueue<Fragment> queue = new LinkedBlockingQueue<>();
+    private Thread sender;
+    private int fragments;
+
+    // owned by the sender thread, read after it is joined
+    private final StringBuilder html = new StringBuilder();
+    private Integer messageId;
+    private long lastSentNanos;
+    private boolean pending;
+    private int apiCalls;
+
+    public ProgressiveHtmlReply(Long chatId) {
+      this.chatId = chatId;
+    }
+
+    /**
+     * A fragment over the message limit is split into several, Telegram refuses longer messages.
+     */
+    public void append(String fragment) {
+      if (sender == null) {
+        sender = Thread.ofVirtual().name("reply-" + chatId).start(this::send);
+      }
+      for (String part : HtmlUtil.split(fragment, MESSAGE_LENGTH_LIMIT)) {
+        fragments++;
+        queue.add(new Fragment(part));
+      }
+    }
+
+    /**
+     * Waits until every fragment is sent, a reply without fragments sends nothing.
+     */
+    public void finish() {
+      if (sender != null) {
+        queue.add(END);
+        try {
+          sender.join();
+        } catch (InterruptedException e) {
+          sender.interrupt();
+          Thread.currentThread().interrupt();
+        }
+      }
+      recordBatch(fragments, apiCalls);
+    }
+
+    public boolean isEmpty() {
+      return fragments == 0;
+    }
+
+    private void send() {
+      try {
+        while (true) {
+          long wait = PROGRESSIVE_EDIT_INTERVAL.toNanos() - (System.nanoTime() - lastSentNanos);
+          Fragment fragment = pending ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.take();
+          if (fragment == null) {
+            flush();
+          } else if (fragment == END) {
+            if (pending) {
+              flush();
+            }
+            return;
+          } else {
+            add(fragment.html());
+          }
+        }
+      } catch (InterruptedException e) {
+        log.warn("[reply] Interrupted with {} characters unsent to chat {}", pending ? html.length() : 0, chatId);
+      }
     }
+
+    private void add(String fragment) {
+      if (!html.isEmpty() && html.length() + 1 + fragment.length() > MESSAGE_LENGTH_LIMIT) {
+        if (pending) {
+          flush();
+        }
+        html.setLength(0);
+        messageId = null;
+      }
+      if (!html.isEmpty()) {
+        html.append('\n');
+      }
+      html.append(fragment);
+
+      if (messageId == null) {
+        Optional<Message> sent = sendHtmlMessage(chatId, html.toString());
+        lastSentNanos = System.nanoTime();
+        apiCalls++;
+        if (sent.isPresent()) {
+          messageId = sent.get().getMessageId();
+        } else {
+          // what failed is dropped, otherwise every later fragment would send the whole buffer again
+          html.setLength(0);
+        }
+      } else if (System.nanoTime() - lastSentNanos >= PROGRESSIVE_EDIT_INTERVAL.toNanos()) {
+        flush();
+      } else {
+        pending = true;
+      }
+    }
+
+    private void flush() {
+      editHtml(chatId, messageId, html.toString());
+      lastSentNanos = System.nanoTime();
+      pending = false;
+      apiCalls++;
+    }
+  }
+
+  private record Fragment(String html) {
   }
 }
@@ -2,9 +2,15 @@ package org.cheban.swisstoolbot.bot;
 
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import org.cheban.swisstoolbot.objects.Units;
 
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 @Getter
@@ -31,8 +37,63 @@ public enum ConfigOption {
     String getString(ContextDb contextDb) {
       return String.valueOf(contextDb.getSearchNumImg());
     }
+  },
+  UNITS("default") {
+    @Override
+    void setString(String value, ContextDb contextDb) {
+      contextDb.setUnits(isDefault(value) ? null : Units.valueOf(value.toUpperCase(Locale.ROOT)));
+    }
+
+    @Override
+    String getString(ContextDb contextDb) {
+      Units units = contextDb.getUnits();
+      return units != null ? units.name().toLowerCase(Locale.ROOT) : DEFAULT_VALUE;
+    }
+  },
+  LOCALE("default") {
+    @Override
+    void setString(String value, ContextDb contextDb) {
+      if (isDefault(value)) {
+        contextDb.setLocale(null);
+        return;
+      }
+      Locale locale = Locale.forLanguageTag(value);
+      if (!AVAILABLE_LOCALES.contains(locale)) {
+        throw new IllegalArgumentException("Unknown locale " + value);
+      }
+      contextDb.setLocale(locale.toLanguageTag());
+    }
+
+    @Override
+    String getString(ContextDb contextDb) {
+      return Objects.requireNonNullElse(contextDb.getLocale(), DEFAULT_VALUE);
+    }
+  },
+  FORECAST("default") {
+    @Override
+    void setString(String value, ContextDb contextDb) {
+      if (isDefault(value)) {
+        contextDb.setForecastTemplate(null);
+        return;
+      }
+      String template = value.toLowerCase(Locale.ROOT);
+      if (!contextDb.getForecastTemplates().contains(template)) {
+        throw new IllegalArgumentException("Unknown forecast template " + value + ", available: " +
+                String.join(", ", new TreeSet<>(contextDb.getForecastTemplates())));
+      }
+      contextDb.setForecastTemplate(template);
+    }
+
+    @Override
+    String getString(ContextDb contextDb) {
+      return Objects.requireNonNullElse(contextDb.getForecastTemplate(), DEFAULT_VALUE);
+    }
   };
 
+  private static final String DEFAULT_VALUE = "default";
+  // locales are validated, so the forecast renderers compiled per locale stay bounded
+  private static final Set<Locale> AVAILABLE_LOCALES = new HashSet<>(Arrays.asList(Locale.getAvailableLocales()));
+
   private final Object defaultValue;
 
   public static ConfigOption find(String name) {
@@ -47,6 +108,10 @@ public enum ConfigOption {
   abstract void setString(String value, ContextDb contextDb);
   abstract String getString(ContextDb contextDb);
 
+  private static boolean isDefault(String value) {
+    return DEFAULT_VALUE.equalsIgnoreCase(value);
+  }
+
   public String userName() {
     return name().toLowerCase();
   }
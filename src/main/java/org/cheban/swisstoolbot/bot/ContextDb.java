@@ -1,88 +1,91 @@
 package org.cheban.swisstoolbot.bot;
 
 import lombok.RequiredArgsConstructor;
-import org.telegram.abilitybots.api.db.DBContext;
+import org.cheban.swisstoolbot.bot.state.ChatState;
+import org.cheban.swisstoolbot.bot.state.ChatStateStore;
+import org.cheban.swisstoolbot.objects.Units;
 
-import java.util.Objects;
-import java.util.Optional;
+import java.util.Set;
 
 @RequiredArgsConstructor
 public class ContextDb {
-  private static final String LOCATION_LAT = "LOCATION_LAT";
-  private static final String LOCATION_LON = "LOCATION_LON";
-  private static final String LOCATION_NAME = "LOCATION_NAME";
-  private static final String LOCATION_KB_VISIBLE = "LOCATION_KB_VISIBLE";
-  private static final String SEARCH_NUM = "SEARCH_NUM";
-  private static final int SEARCH_DEFAULT = 5;
-  private static final String SEARCH_NUM_IMG = "SEARCH_NUM_IMG";
-  private static final int SEARCH_DEFAULT_IMG = 10;
+  private final ChatStateStore store;
+  private final long chatId;
+  private final Set<String> forecastTemplates;
 
-  private final DBContext db;
-  private final Long chatId;
-
-  public void updateLocationData(Double lat, Double lon, String locationName) {
-    setLocationLatitude(lat);
-    setLocationLongitude(lon);
-    setLocationName(locationName);
-  }
-
-  public void setLocationLatitude(Double lat) {
-    setVar(LOCATION_LAT, lat);
+  public ChatState state() {
+    return store.get(chatId);
   }
 
-  public Double getLocationLatitude() {
-    return getVar(LOCATION_LAT);
+  public void updateLocationData(double lat, double lon, String locationName) {
+    store.update(chatId, s -> s.withLocation(lat, lon, locationName));
   }
 
-  public void setLocationLongitude(Double lon) {
-    setVar(LOCATION_LON, lon);
+  public boolean hasLocation() {
+    return state().hasLocation();
   }
 
-  public Double getLocationLongitude() {
-    return getVar(LOCATION_LON);
+  public double getLocationLatitude() {
+    return state().latitude();
   }
 
-  public void setLocationName(String name) {
-    setVar(LOCATION_NAME, name);
+  public double getLocationLongitude() {
+    return state().longitude();
   }
 
   public String getLocationName() {
-    return getVar(LOCATION_NAME);
+    return state().locationName();
   }
 
   public void setLocationKeyboardVisible(boolean visible) {
-    setVar(LOCATION_KB_VISIBLE, visible);
+    store.update(chatId, s -> s.withLocationKeyboardVisible(visible));
   }
 
   public boolean isLocationKeyboardVisible() {
-    return Objects.equals(getVar(LOCATION_KB_VISIBLE), true);
+    return state().locationKeyboardVisible();
   }
 
   public void setSearchNum(int num) {
-    setVar(SEARCH_NUM, num);
+    store.update(chatId, s -> s.withSearchNum(num));
   }
 
   public int getSearchNum() {
-    return Optional.<Integer>ofNullable(getVar(SEARCH_NUM)).orElse(SEARCH_DEFAULT);
+    return state().searchNum();
   }
 
   public void setSearchNumImg(int num) {
-    setVar(SEARCH_NUM_IMG, num);
+    store.update(chatId, s -> s.withSearchNumImg(num));
   }
 
   public int getSearchNumImg() {
-    return Optional.<Integer>ofNullable(getVar(SEARCH_NUM_IMG)).orElse(SEARCH_DEFAULT_IMG);
+    return state().searchNumImg();
+  }
+
+  public void setUnits(Units units) {
+    store.update(chatId, s -> s.withUnits(units));
+  }
+
+  public Units getUnits() {
+    return state().units();
+  }
+
+  public void setLocale(String locale) {
+    store.update(chatId, s -> s.withLocale(locale));
+  }
+
+  public String getLocale() {
+    return state().locale();
   }
 
-  public <T> T getVar(String name) {
-    return db.<T>getVar(dbKey(name)).get();
+  public void setForecastTemplate(String template) {
+    store.update(chatId, s -> s.withForecastTemplate(template));
   }
 
-  public <T> void setVar(String name, T value) {
-    this.db.getVar(this.dbKey(name)).set(value);
+  public String getForecastTemplate() {
+    return state().forecastTemplate();
   }
 
-  private String dbKey(String name) {
-    return chatId + ":" + name;
+  public Set<String> getForecastTemplates() {
+    return forecastTemplates;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,337 @@
+package org.cheban.swisstoolbot.bot;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue for outgoing Bot API calls, rate limited globally and per chat with token buckets.
+ * Between chats, text replies go ahead of media. Within a chat calls run in submission order, one at a time,
+ * so a chat sees messages in order.
+ * A 429 response pauses the chat and all other calls for {@code retry_after} and puts the call back into the queue.
+ */
+@Slf4j
+@Component
+public class OutboundQueue implements DisposableBean {
+  private static final long IDLE_BUCKET_CLEANUP_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  public enum Priority {
+    TEXT,
+    MEDIA
+  }
+
+  private static final Comparator<Job<?>> ORDER = Comparator.<Job<?>, Priority>comparing(j -> j.priority)
+          .thenComparingLong(j -> j.seq);
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+
+  // jobs of each chat in submission order, priority only decides which chat goes next
+  private final Map<Long, ArrayDeque<Job<?>>> chatJobs = new HashMap<>();
+  private int depth;
+  private final Map<Long, TokenBucket> chatBuckets = new HashMap<>();
+  private final Set<Long> inFlightChats = new HashSet<>();
+  private final TokenBucket globalBucket;
+  private final BotProperties.Outbound properties;
+  private final ObservationRegistry observationRegistry;
+  private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+  private final AtomicLong seq = new AtomicLong();
+  private final Thread dispatcher = Thread.ofPlatform().name("telegram-outbound").daemon().unstarted(this::dispatch);
+  private volatile boolean running = true;
+
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder throttled = new LongAdder();
+  // time a call waited for its turn, each attempt counts on its own
+  private final Timer queueWait;
+  // time from submission to the call's final outcome, retries included
+  private final Timer sentLatency;
+  private final Timer failedLatency;
+
+  public OutboundQueue(BotProperties botProperties, ObservationRegistry observationRegistry,
+                       MeterRegistry meterRegistry) {
+    this.properties = botProperties.getOutbound();
+    this.observationRegistry = observationRegistry;
+    this.globalBucket = new TokenBucket(properties.getGlobalPerSecond(), properties.getGlobalPerSecond(), System.nanoTime());
+    this.queueWait = Timer.builder("bot.outbound.queue.wait")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    this.sentLatency = latency(meterRegistry, "sent");
+    this.failedLatency = latency(meterRegistry, "failed");
+  }
+
+  private static Timer latency(MeterRegistry meterRegistry, String outcome) {
+    return Timer.builder("bot.outbound.latency")
+            .tag("outcome", outcome)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+  }
+
+  @PostConstruct
+  public void start() {
+    dispatcher.start();
+  }
+
+  /**
+   * Queues {@code call}, the observation current on the calling thread becomes the parent of the call's observation.
+   */
+  public <T> CompletableFuture<T> submit(long chatId, Priority priority, String method, Callable<T> call) {
+    Job<T> job = new Job<>(chatId, priority, seq.incrementAndGet(), method, observationRegistry.getCurrentObservation(),
+            call);
+    lock.lock();
+    try {
+      if (!running) {
+        job.future.completeExceptionally(new CancellationException("Outbound queue is shut down"));
+        return job.future;
+      }
+      chatJobs.computeIfAbsent(chatId, id -> new ArrayDeque<>()).addLast(job);
+      depth++;
+      changed.signal();
+    } finally {
+      lock.unlock();
+    }
+    return job.future;
+  }
+
+  public int depth() {
+    lock.lock();
+    try {
+      return depth;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int inFlight() {
+    lock.lock();
+    try {
+      return inFlightChats.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long sent() {
+    return sent.sum();
+  }
+
+  public long failed() {
+    return failed.sum();
+  }
+
+  public long throttled() {
+    return throttled.sum();
+  }
+
+  private void dispatch() {
+    long lastCleanup = System.nanoTime();
+    while (running) {
+      Job<?> job;
+      lock.lock();
+      try {
+        long now = System.nanoTime();
+        if (now - lastCleanup > IDLE_BUCKET_CLEANUP_NANOS) {
+          chatBuckets.entrySet().removeIf(e -> !inFlightChats.contains(e.getKey()) && e.getValue().isIdle(now));
+          lastCleanup = now;
+        }
+
+        long wait = globalBucket.nanosUntilAvailable(now);
+        job = wait == 0 ? nextReady(now) : null;
+        if (job == null) {
+          if (wait == 0) {
+            wait = nanosUntilNextReady(now);
+          }
+          if (wait == Long.MAX_VALUE) {
+            changed.await();
+          } else {
+            changed.awaitNanos(wait);
+          }
+          continue;
+        }
+
+        ArrayDeque<Job<?>> queued = chatJobs.get(job.chatId);
+        queued.pollFirst();
+        if (queued.isEmpty()) {
+          chatJobs.remove(job.chatId);
+        }
+        depth--;
+        globalBucket.take(now);
+        chatBucket(job.chatId, now).take(now);
+        inFlightChats.add(job.chatId);
+        queueWait.record(now - job.queuedNanos, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } finally {
+        lock.unlock();
+      }
+
+      Job<?> next = job;
+      senders.execute(() -> run(next));
+    }
+  }
+
+  /**
+   * The first job of the ready chat whose first job ranks highest, so a chat's text never overtakes its own media.
+   */
+  private Job<?> nextReady(long now) {
+    Job<?> next = null;
+    for (Map.Entry<Long, ArrayDeque<Job<?>>> e : chatJobs.entrySet()) {
+      Job<?> head = e.getValue().peekFirst();
+      if ((next == null || ORDER.compare(head, next) < 0) && !inFlightChats.contains(e.getKey()) &&
+              chatBucket(e.getKey(), now).nanosUntilAvailable(now) == 0) {
+        next = head;
+      }
+    }
+    return next;
+  }
+
+  private long nanosUntilNextReady(long now) {
+    long wait = Long.MAX_VALUE;
+    for (Long chatId : chatJobs.keySet()) {
+      // chats with a call in flight are woken up by its completion
+      if (!inFlightChats.contains(chatId)) {
+        wait = Math.min(wait, chatBucket(chatId, now).nanosUntilAvailable(now));
+      }
+    }
+    return wait;
+  }
+
+  private TokenBucket chatBucket(long chatId, long now) {
+    return chatBuckets.computeIfAbsent(chatId,
+            id -> new TokenBucket(properties.getChatPerSecond(), properties.getChatBurst(), now));
+  }
+
+  private <T> void run(Job<T> job) {
+    boolean requeue = false;
+    Observation observation = Observation.createNotStarted("bot.telegram", observationRegistry)
+            .parentObservation(job.parent)
+            .lowCardinalityKeyValue("method", job.method)
+            .lowCardinalityKeyValue("status", "ok")
+            .highCardinalityKeyValue("chat", Long.toString(job.chatId))
+            .start();
+    try {
+      job.attempts++;
+      T result = job.call.call();
+      sentLatency.record(System.nanoTime() - job.enqueuedNanos, TimeUnit.NANOSECONDS);
+      sent.increment();
+      job.future.complete(result);
+    } catch (TelegramApiRequestException e) {
+      observation.lowCardinalityKeyValue("status", Objects.toString(e.getErrorCode(), "error"));
+      observation.error(e);
+      if (Objects.equals(e.getErrorCode(), 429) && job.attempts < properties.getMaxAttempts()) {
+        throttled.increment();
+        requeue = true;
+        long retryAfterSeconds = e.getParameters() != null && e.getParameters().getRetryAfter() != null ?
+                e.getParameters().getRetryAfter() : 1L << job.attempts;
+        log.warn("[outbound] Too many requests for chat {}, retrying in {}s", job.chatId, retryAfterSeconds);
+        pause(job, TimeUnit.SECONDS.toNanos(retryAfterSeconds));
+      } else {
+        fail(job, e);
+      }
+    } catch (Exception e) {
+      observation.lowCardinalityKeyValue("status", "error");
+      observation.error(e);
+      fail(job, e);
+    } finally {
+      observation.stop();
+      lock.lock();
+      try {
+        inFlightChats.remove(job.chatId);
+        if (requeue && running) {
+          // nothing else of the chat ran while the job was in flight, so it is still the oldest
+          chatJobs.computeIfAbsent(job.chatId, id -> new ArrayDeque<>()).addFirst(job);
+          job.queuedNanos = System.nanoTime();
+          depth++;
+        } else if (requeue) {
+          job.future.completeExceptionally(new CancellationException("Outbound queue is shut down"));
+        }
+        changed.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private void pause(Job<?> job, long nanos) {
+    lock.lock();
+    try {
+      long now = System.nanoTime();
+      chatBucket(job.chatId, now).pauseUntil(now + nanos);
+      // the limit may be the bot's overall one, other chats would only collect more 429s meanwhile
+      globalBucket.pauseUntil(now + nanos);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void fail(Job<?> job, Exception e) {
+    failedLatency.record(System.nanoTime() - job.enqueuedNanos, TimeUnit.NANOSECONDS);
+    failed.increment();
+    job.future.completeExceptionally(e);
+  }
+
+  @Override
+  public void destroy() {
+    lock.lock();
+    try {
+      running = false;
+      // callers may be blocked on these futures, so they must not stay incomplete
+      chatJobs.values().forEach(queued -> queued.forEach(job ->
+              job.future.completeExceptionally(new CancellationException("Outbound queue is shut down"))));
+      chatJobs.clear();
+      depth = 0;
+    } finally {
+      lock.unlock();
+    }
+    dispatcher.interrupt();
+    senders.shutdown();
+  }
+
+  private static final class Job<T> {
+    private final long chatId;
+    private final Priority priority;
+    private final long seq;
+    private final String method;
+    private final Observation parent;
+    private final Callable<T> call;
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+    private final long enqueuedNanos = System.nanoTime();
+    private long queuedNanos = enqueuedNanos;
+    private int attempts;
+
+    private Job(long chatId, Priority priority, long seq, String method, Observation parent, Callable<T> call) {
+      this.chatId = chatId;
+      this.priority = priority;
+      this.seq = seq;
+      this.method = method;
+      this.parent = parent;
+      this.call = call;
+    }
+  }
+}
@@ -1,22 +1,32 @@
 package org.cheban.swisstoolbot.bot;
 
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.bot.state.ChatState;
+import org.cheban.swisstoolbot.bot.state.ChatStateStore;
 import org.cheban.swisstoolbot.configuration.BotProperties;
 import org.cheban.swisstoolbot.objects.LocationInfo;
 import org.cheban.swisstoolbot.service.GeocodeService;
 import org.cheban.swisstoolbot.service.WeatherService;
 import org.cheban.swisstoolbot.service.WebSearchService;
+import org.cheban.swisstoolbot.service.impl.DocumentFetcher;
+import org.cheban.swisstoolbot.service.impl.ForecastRenderers;
+import org.cheban.swisstoolbot.service.impl.ImageValidator;
+import org.cheban.swisstoolbot.service.impl.MediaCache;
 import org.cheban.swisstoolbot.util.AbilityMethod;
+import org.cheban.swisstoolbot.util.DownloadException;
 import org.cheban.swisstoolbot.util.HtmlUtil;
 import org.cheban.swisstoolbot.objects.ImageResult;
-import org.cheban.swisstoolbot.objects.WebResult;
 import org.springframework.stereotype.Component;
+import org.telegram.abilitybots.api.db.DBContext;
 import org.telegram.abilitybots.api.objects.Ability;
 import org.telegram.abilitybots.api.objects.Flag;
 import org.telegram.abilitybots.api.objects.Locality;
 import org.telegram.abilitybots.api.objects.MessageContext;
 import org.telegram.abilitybots.api.objects.Privacy;
 import org.telegram.abilitybots.api.util.AbilityUtils;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
 import org.telegram.telegrambots.meta.api.methods.send.SendMediaGroup;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
@@ -28,9 +38,13 @@ import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardRem
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardButton;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardRow;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static org.telegram.abilitybots.api.util.AbilityUtils.getChatId;
@@ -43,23 +57,90 @@ public class SwissToolBot extends AbstractAbilityBot {
   private final GeocodeService geocodeService;
   private final WebSearchService webSearchService;
   private final WeatherService weatherService;
-  private ContextDb contextDb;
+  private final ForecastRenderers forecastRenderers;
+  private final MediaCache mediaCache;
+  private final DocumentFetcher documentFetcher;
+  private final ImageValidator imageValidator;
+  private final UpdateDispatcher updateDispatcher;
+  private final ChatStateStore chatStateStore;
+  private final ObservationRegistry observationRegistry;
 
   public SwissToolBot(BotProperties botProperties,
                       GeocodeService geocodeService,
                       WebSearchService webSearchService,
-                      WeatherService weatherService) {
-    super(botProperties.getToken(), botProperties.getUsername(), botProperties.getCreatorId());
+                      WeatherService weatherService,
+                      ForecastRenderers forecastRenderers,
+                      UpdateDispatcher updateDispatcher,
+                      OutboundQueue outboundQueue,
+                      MediaCache mediaCache,
+                      DocumentFetcher documentFetcher,
+                      ImageValidator imageValidator,
+                      DBContext botDb,
+                      ChatStateStore chatStateStore,
+                      ObservationRegistry observationRegistry) {
+    super(botProperties.getToken(), botProperties.getUsername(), botDb, botProperties.getCreatorId(), outboundQueue,
+            mediaCache, botOptions(botProperties));
     this.whitelist = botProperties.getWhitelist();
     this.geocodeService = geocodeService;
     this.webSearchService = webSearchService;
     this.weatherService = weatherService;
+    this.forecastRenderers = forecastRenderers;
+    this.mediaCache = mediaCache;
+    this.documentFetcher = documentFetcher;
+    this.imageValidator = imageValidator;
+    this.updateDispatcher = updateDispatcher;
+    this.chatStateStore = chatStateStore;
+    this.observationRegistry = observationRegistry;
+  }
+
+  private static DefaultBotOptions botOptions(BotProperties botProperties) {
+    DefaultBotOptions options = new DefaultBotOptions();
+    if (botProperties.getApiBaseUrl() != null) {
+      options.setBaseUrl(botProperties.getApiBaseUrl());
+    }
+    return options;
   }
 
   @Override
   public void onUpdateReceived(Update update) {
-    this.contextDb = new ContextDb(db(), getChatId(update));
-    super.onUpdateReceived(update);
+    long chatKey = chatKey(update);
+    updateDispatcher.dispatch(chatKey, () -> Observation.createNotStarted("bot.update", observationRegistry)
+            .highCardinalityKeyValue("chat", Long.toString(chatKey))
+            .observe(() -> super.onUpdateReceived(update)));
+  }
+
+  private Consumer<MessageContext> observed(String ability, Consumer<MessageContext> action) {
+    return ctx -> {
+      Observation observation = Observation.createNotStarted("bot.ability", observationRegistry)
+              .lowCardinalityKeyValue("ability", ability)
+              .lowCardinalityKeyValue("status", "ok")
+              .start();
+      try (Observation.Scope ignored = observation.openScope()) {
+        action.accept(ctx);
+      } catch (IllegalArgumentException e) {
+        // missing or malformed arguments, the user has been told already
+        observation.lowCardinalityKeyValue("status", "invalid");
+        throw e;
+      } catch (RuntimeException e) {
+        observation.lowCardinalityKeyValue("status", "error");
+        observation.error(e);
+        throw e;
+      } finally {
+        observation.stop();
+      }
+    };
+  }
+
+  private static long chatKey(Update update) {
+    try {
+      return getChatId(update);
+    } catch (IllegalStateException e) {
+      return 0L;
+    }
+  }
+
+  private ContextDb contextDb(MessageContext ctx) {
+    return new ContextDb(chatStateStore, ctx.chatId(), forecastRenderers.templates());
   }
 
   @Override
@@ -80,7 +161,7 @@ public class SwissToolBot extends AbstractAbilityBot {
             .flag(Flag.LOCATION)
             .locality(Locality.ALL)
             .privacy(Privacy.PUBLIC)
-            .action(this::doUpdateLocation)
+            .action(observed("default", this::doUpdateLocation))
             .build();
   }
 
@@ -90,7 +171,7 @@ public class SwissToolBot extends AbstractAbilityBot {
             .name("hidekb")
             .locality(Locality.ALL)
             .privacy(Privacy.PUBLIC)
-            .action(this::doRemoveKeyboard)
+            .action(observed("hidekb", this::doRemoveKeyboard))
             .build();
   }
 
@@ -101,7 +182,7 @@ public class SwissToolBot extends AbstractAbilityBot {
             .info("Web Search")
             .locality(Locality.ALL)
             .privacy(Privacy.PUBLIC)
-            .action(this::doWebSearch)
+            .action(observed("s", this::doWebSearch))
             .build();
   }
 
@@ -112,7 +193,7 @@ public class SwissToolBot extends AbstractAbilityBot {
             .info("Image Search")
             .locality(Locality.ALL)
             .privacy(Privacy.PUBLIC)
-            .action(this::doImageSearch)
+            .action(observed("i", this::doImageSearch))
             .build();
   }
 
@@ -123,7 +204,7 @@ public class SwissToolBot extends AbstractAbilityBot {
             .info("Fetch document by URL")
             .locality(Locality.ALL)
             .privacy(Privacy.PUBLIC)
-            .action(this::doFetchDocument)
+            .action(observed("doc", this::doFetchDocument))
             .build();
   }
 
@@ -134,7 +215,7 @@ public class SwissToolBot extends AbstractAbilityBot {
             .info("Set user location")
             .locality(Locality.ALL)
             .privacy(Privacy.PUBLIC)
-            .action(this::doSetLocation)
+            .action(observed("l", this::doSetLocation))
             .build();
   }
 
@@ -145,7 +226,7 @@ public class SwissToolBot extends AbstractAbilityBot {
             .info("Change settings")
             .locality(Locality.ALL)
             .privacy(Privacy.PUBLIC)
-            .action(this::doConfig)
+            .action(observed("conf", this::doConfig))
             .build();
   }
 
@@ -156,54 +237,95 @@ public class SwissToolBot extends AbstractAbilityBot {
             .info("Weather")
             .locality(Locality.ALL)
             .privacy(Privacy.PUBLIC)
-            .action(this::doWeather)
+            .action(observed("w", this::doWeather))
             .build();
   }
 
   private void doWebSearch(MessageContext ctx) {
     this.checkArguments(ctx);
-    List<WebResult> results = webSearchService.search(String.join(" ", ctx.arguments()), contextDb.getSearchNum());
-    if (results.isEmpty()) {
+    ProgressiveHtmlReply reply = new ProgressiveHtmlReply(ctx.chatId());
+    try {
+      webSearchService.search(String.join(" ", ctx.arguments()), contextDb(ctx).getSearchNum(),
+              r -> reply.append(HtmlUtil.buildLink(r.url(), r.title())));
+    } finally {
+      // the search body is closed by now, only the sends are left
+      reply.finish();
+    }
+    if (reply.isEmpty()) {
       this.sendText(ctx.chatId(), "No results");
-    } else {
-      results.forEach(r -> this.sendHtml(ctx.chatId(), HtmlUtil.buildLink(r.url(), r.title())));
     }
   }
 
   private void doImageSearch(MessageContext ctx) {
     this.checkArguments(ctx);
     List<ImageResult> results =
-            webSearchService.searchImages(String.join(" ", ctx.arguments()), contextDb.getSearchNumImg());
+            webSearchService.searchImages(String.join(" ", ctx.arguments()), contextDb(ctx).getSearchNumImg());
     if (results.isEmpty()) {
       this.sendText(ctx.chatId(), "No results");
     } else {
-      List<InputMedia> inputMedia = results.stream().map(this::buildImageMedia).toList();
-      if (results.size() > 10 || !this.silentSendMediaGroup(new SendMediaGroup(Long.toString(ctx.chatId()), inputMedia))) {
-        results.forEach(img -> this.silentSendPhoto(this.buildSendPhoto(img)
-                .chatId(Long.toString(ctx.chatId()))
-                .build()));
-      }
+      Map<MediaCache.Kind, List<ImageResult>> byKind = results.stream()
+              .collect(Collectors.groupingBy(img -> imageValidator.kind(img.src())));
+      this.sendPhotos(ctx.chatId(), byKind.getOrDefault(MediaCache.Kind.PHOTO, List.of()));
+      byKind.getOrDefault(MediaCache.Kind.DOCUMENT, List.of()).forEach(img -> this.silentSendDocument(
+              this.buildSendDocument(img)
+                      .chatId(Long.toString(ctx.chatId()))
+                      .build(), img.src()));
     }
+  }
 
+  private void sendPhotos(long chatId, List<ImageResult> photos) {
+    if (photos.isEmpty()) {
+      return;
+    }
+    List<InputMedia> inputMedia = photos.stream().map(this::buildImageMedia).toList();
+    List<String> sources = photos.stream().map(ImageResult::src).toList();
+    if (photos.size() > 10 ||
+            !this.silentSendMediaGroup(new SendMediaGroup(Long.toString(chatId), inputMedia), sources)) {
+      photos.forEach(img -> this.silentSendPhoto(this.buildSendPhoto(img)
+              .chatId(Long.toString(chatId))
+              .build(), img.src()));
+    }
   }
 
   private void doFetchDocument(MessageContext ctx) {
     this.checkArguments(ctx);
-    this.silentSendDocument(SendDocument.builder()
-            .chatId(Long.toString(ctx.chatId()))
-            .document(new InputFile(String.join(" ", ctx.arguments())))
-            .build());
+    String url = String.join(" ", ctx.arguments());
+    Optional<String> fileId = mediaCache.fileId(MediaCache.Kind.DOCUMENT, url);
+    if (fileId.isPresent() || !documentFetcher.isEnabled()) {
+      this.silentSendDocument(SendDocument.builder()
+              .chatId(Long.toString(ctx.chatId()))
+              .document(new InputFile(fileId.orElse(url)))
+              .build(), url);
+      return;
+    }
+
+    try {
+      DocumentFetcher.Document document = documentFetcher.fetch(url);
+      this.silentUploadDocument(SendDocument.builder()
+              .chatId(Long.toString(ctx.chatId()))
+              .document(new InputFile(document.file().toFile(), document.fileName()))
+              .build(), url, document.file());
+    } catch (DownloadException e) {
+      this.sendText(ctx.chatId(), "Could not fetch the document: " + e.getMessage());
+    } catch (IOException e) {
+      log.error("[doc] Could not fetch {}", url, e);
+      this.sendText(ctx.chatId(), "Could not fetch the document");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   private void doUpdateLocation(MessageContext ctx) {
     Update update = ctx.update();
     Double lat = update.getMessage().getLocation().getLatitude();
     Double lon = update.getMessage().getLocation().getLongitude();
+    ContextDb contextDb = contextDb(ctx);
     contextDb.updateLocationData(lat, lon, geocodeService.location(lat, lon));
-    this.doRemoveKeyboard(ctx, "Thanks for sharing your location");
+    this.doRemoveKeyboard(ctx, contextDb, "Thanks for sharing your location");
   }
 
   private void doSetLocation(MessageContext ctx) {
+    ContextDb contextDb = contextDb(ctx);
     if (ctx.arguments().length > 0) {
       String args = String.join(" ", ctx.arguments());
       if (args.matches("-?\\d+(\\.\\d+)?,-?\\d+(\\.\\d+)?")) {
@@ -211,22 +333,22 @@ public class SwissToolBot extends AbstractAbilityBot {
         Double lat = Double.valueOf(coords[0]);
         Double lon = Double.valueOf(coords[1]);
         contextDb.updateLocationData(lat, lon, geocodeService.location(lat, lon));
-        this.silent.send("Successfully changed your location", ctx.chatId());
+        this.sendText(ctx.chatId(), "Successfully changed your location");
       } else {
         LocationInfo location = geocodeService.coordinates(args);
-        if (location != null) {
+        if (location != null && location.lat() != null && location.lon() != null) {
           contextDb.updateLocationData(location.lat(), location.lon(), location.name());
-          this.silent.send("Successfully changed your location", ctx.chatId());
+          this.sendText(ctx.chatId(), "Successfully changed your location");
         } else {
-          this.silent.send("Unable to change your location to '" + args + "'", ctx.chatId());
+          this.sendText(ctx.chatId(), "Unable to change your location to '" + args + "'");
         }
       }
     } else {
-      this.requestUserLocation(ctx);
+      this.requestUserLocation(ctx, contextDb);
     }
   }
 
-  private void requestUserLocation(MessageContext ctx) {
+  private void requestUserLocation(MessageContext ctx, ContextDb contextDb) {
     ReplyKeyboardMarkup keyboardMarkup = new ReplyKeyboardMarkup();
     keyboardMarkup.setResizeKeyboard(true);
     keyboardMarkup.setOneTimeKeyboard(true);
@@ -234,7 +356,7 @@ public class SwissToolBot extends AbstractAbilityBot {
     KeyboardRow row = new KeyboardRow();
     row.add(shareLocationBtn);
     keyboardMarkup.setKeyboard(List.of(row));
-    this.silent.execute(SendMessage.builder()
+    this.sendMessage(SendMessage.builder()
             .chatId(Long.toString(ctx.chatId()))
             .text("Please share your location")
             .replyMarkup(keyboardMarkup)
@@ -243,10 +365,10 @@ public class SwissToolBot extends AbstractAbilityBot {
   }
 
   private void doRemoveKeyboard(MessageContext ctx) {
-    this.doRemoveKeyboard(ctx, "Keyboard hidden");
+    this.doRemoveKeyboard(ctx, contextDb(ctx), "Keyboard hidden");
   }
 
-  private void doRemoveKeyboard(MessageContext ctx, String msg) {
+  private void doRemoveKeyboard(MessageContext ctx, ContextDb contextDb, String msg) {
     if (contextDb.isLocationKeyboardVisible()) {
       SendMessage message = new SendMessage();
       message.setChatId(Long.toString(ctx.chatId()));
@@ -254,14 +376,16 @@ public class SwissToolBot extends AbstractAbilityBot {
       ReplyKeyboardRemove keyboardMarkup = ReplyKeyboardRemove.builder().removeKeyboard(true).build();
       message.setReplyMarkup(keyboardMarkup);
       contextDb.setLocationKeyboardVisible(false);
-      this.silent.execute(message);
+      this.sendMessage(message);
     }
   }
 
   private void doWeather(MessageContext ctx) {
-    Double lat = contextDb.getLocationLatitude();
-    Double lon = contextDb.getLocationLongitude();
-    String locName = contextDb.getLocationName();
+    ContextDb contextDb = contextDb(ctx);
+    ChatState state = contextDb.state();
+    Double lat = state.hasLocation() ? state.latitude() : null;
+    Double lon = state.hasLocation() ? state.longitude() : null;
+    String locName = state.locationName();
 
     if (ctx.arguments().length > 0) {
       String args = String.join(" ", ctx.arguments());
@@ -281,14 +405,18 @@ public class SwissToolBot extends AbstractAbilityBot {
     }
 
     if (lat != null && lon != null) {
-      weatherService.forecastMsg(locName, lat, lon)
+      String name = locName;
+      weatherService.forecast(lat, lon)
+              .map(forecast -> forecastRenderers.get(state.forecastTemplate(), state.units(), state.locale())
+                      .render(name, forecast))
               .ifPresent(msg -> this.sendText(ctx.chatId(), msg));
     } else {
-      this.requestUserLocation(ctx);
+      this.requestUserLocation(ctx, contextDb);
     }
   }
 
   private void doConfig(MessageContext ctx) {
+    ContextDb contextDb = contextDb(ctx);
     if (ctx.arguments().length > 0) {
       ConfigOption config = ConfigOption.find(ctx.firstArg());
       if (config != null) {
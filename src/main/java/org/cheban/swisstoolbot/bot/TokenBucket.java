@@ -0,0 +1,50 @@
+package org.cheban.swisstoolbot.bot;
+
+/**
+ * Not thread-safe, callers synchronize.
+ */
+class TokenBucket {
+  private final double capacity;
+  private final double tokensPerNano;
+  private double tokens;
+  private long updatedNanos;
+  private long pausedUntilNanos;
+
+  TokenBucket(double perSecond, double capacity, long now) {
+    this.capacity = capacity;
+    this.tokensPerNano = perSecond / 1e9;
+    this.tokens = capacity;
+    this.updatedNanos = now;
+    this.pausedUntilNanos = now;
+  }
+
+  long nanosUntilAvailable(long now) {
+    refill(now);
+    long paused = pausedUntilNanos - now;
+    if (tokens >= 1) {
+      return Math.max(paused, 0);
+    }
+    return Math.max(paused, (long) Math.ceil((1 - tokens) / tokensPerNano));
+  }
+
+  void take(long now) {
+    refill(now);
+    tokens -= 1;
+  }
+
+  void pauseUntil(long nanos) {
+    if (nanos - pausedUntilNanos > 0) {
+      pausedUntilNanos = nanos;
+    }
+  }
+
+  boolean isIdle(long now) {
+    refill(now);
+    return tokens >= capacity && pausedUntilNanos - now <= 0;
+  }
+
+  private void refill(long now) {
+    tokens = Math.min(capacity, tokens + (now - updatedNanos) * tokensPerNano);
+    updatedNanos = now;
+  }
+}
@@ -0,0 +1,124 @@
+package org.cheban.swisstoolbot.bot;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs updates on virtual threads: updates of the same chat are processed in order, different chats in parallel.
+ */
+@Slf4j
+@Component
+public class UpdateDispatcher implements DisposableBean {
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final Map<Long, ChatQueue> queues = new ConcurrentHashMap<>();
+  private final Semaphore permits;
+  private final int maxConcurrentUpdates;
+  private final int chatBacklog;
+  private final LongAdder dropped = new LongAdder();
+
+  public UpdateDispatcher(BotProperties botProperties) {
+    BotProperties.Dispatcher properties = botProperties.getDispatcher();
+    this.permits = new Semaphore(properties.getMaxConcurrentUpdates(), true);
+    this.maxConcurrentUpdates = properties.getMaxConcurrentUpdates();
+    this.chatBacklog = properties.getChatBacklog();
+  }
+
+  public boolean dispatch(long chatId, Runnable task) {
+    while (true) {
+      ChatQueue queue = queues.computeIfAbsent(chatId, id -> new ChatQueue());
+      synchronized (queue) {
+        if (queue.retired) {
+          continue;
+        }
+        if (queue.tasks.size() >= chatBacklog) {
+          log.warn("[dispatch] Backlog of chat {} is full ({}), dropping update", chatId, chatBacklog);
+          dropped.increment();
+          return false;
+        }
+        queue.tasks.add(task);
+        if (queue.running) {
+          return true;
+        }
+        queue.running = true;
+      }
+      executor.execute(() -> drain(chatId, queue));
+      return true;
+    }
+  }
+
+  public int activeUpdates() {
+    return maxConcurrentUpdates - permits.availablePermits();
+  }
+
+  public int waitingUpdates() {
+    return permits.getQueueLength();
+  }
+
+  public int activeChats() {
+    return queues.size();
+  }
+
+  public long droppedUpdates() {
+    return dropped.sum();
+  }
+
+  private void drain(long chatId, ChatQueue queue) {
+    while (true) {
+      Runnable task;
+      synchronized (queue) {
+        task = queue.tasks.poll();
+        if (task == null) {
+          queue.running = false;
+          queue.retired = true;
+          queues.remove(chatId, queue);
+          return;
+        }
+      }
+      run(chatId, task);
+    }
+  }
+
+  private void run(long chatId, Runnable task) {
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.warn("[dispatch] Interrupted while waiting for a permit, chat {}", chatId);
+      return;
+    }
+
+    try {
+      task.run();
+    } catch (Exception e) {
+      log.error("[dispatch] Exception during update processing, chat {}", chatId, e);
+    } finally {
+      permits.release();
+    }
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    executor.shutdown();
+    if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+      executor.shutdownNow();
+    }
+  }
+
+  private static final class ChatQueue {
+    private final Deque<Runnable> tasks = new ArrayDeque<>();
+    private boolean running;
+    private boolean retired;
+  }
+}
@@ -0,0 +1,188 @@
+package org.cheban.swisstoolbot.bot;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.bot.state.ChatStateStore;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.cheban.swisstoolbot.service.impl.CachingWeatherService;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Refreshes cached forecasts for the saved locations of all chats before they expire, so
+ * {@code /w} without arguments is answered from the cache. Chats are grouped by weather cell,
+ * cells are refreshed most recently used first and upstream calls are limited by a per-minute budget.
+ * Hedged and failed-over calls count against the budget as well.
+ * <p>
+ * A run happens on a virtual thread and refreshes up to {@code maxConcurrent} cells at a time, so Spring's single
+ * scheduler thread only starts it. A run still going when the next one is due is left to finish.
+ */
+@Slf4j
+@Component
+public class WeatherPrefetcher implements DisposableBean {
+  private final ChatStateStore chatStateStore;
+  private final CachingWeatherService weatherService;
+  private final BotProperties.Prefetch properties;
+  // guarded by itself, refreshes report their extra calls from their own threads
+  private final TokenBucket budget;
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  private final LongAdder refreshed = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder deferred = new LongAdder();
+
+  public WeatherPrefetcher(ChatStateStore chatStateStore, CachingWeatherService weatherService,
+                          BotProperties botProperties) {
+    this.chatStateStore = chatStateStore;
+    this.weatherService = weatherService;
+    this.properties = botProperties.getWeather().getPrefetch();
+    this.budget = new TokenBucket(properties.getCallsPerMinute() / 60.0, properties.getCallsPerMinute(),
+            System.nanoTime());
+  }
+
+  @Scheduled(initialDelayString = "${bot.weather.prefetch.interval:PT1M}",
+          fixedDelayString = "${bot.weather.prefetch.interval:PT1M}")
+  public void prefetch() {
+    if (!properties.isEnabled() || !running.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      executor.execute(() -> {
+        try {
+          refreshStale();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+          log.error("[prefetch] Prefetch run failed", e);
+        } finally {
+          running.set(false);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // shutting down
+      running.set(false);
+    }
+  }
+
+  private void refreshStale() throws InterruptedException {
+    List<Candidate> candidates = candidates();
+    Semaphore permits = new Semaphore(properties.getMaxConcurrent());
+    List<Future<?>> refreshes = new ArrayList<>();
+    AtomicInteger refreshedNow = new AtomicInteger();
+    for (int i = 0; i < candidates.size(); i++) {
+      Candidate candidate = candidates.get(i);
+      // waiting first, so the budget sees the extra calls of the refreshes before
+      permits.acquire();
+      if (!takeBudget()) {
+        permits.release();
+        deferred.add(candidates.size() - i);
+        break;
+      }
+      refreshes.add(executor.submit(() -> {
+        try {
+          // a hedged refresh asks more than one provider, the extra calls are taken out of the next ones
+          if (weatherService.refresh(candidate.cell(), this::takeExtra)) {
+            refreshed.increment();
+            refreshedNow.incrementAndGet();
+          } else {
+            failed.increment();
+          }
+        } finally {
+          permits.release();
+        }
+      }));
+    }
+    for (Future<?> refresh : refreshes) {
+      try {
+        refresh.get();
+      } catch (ExecutionException e) {
+        failed.increment();
+        log.error("[prefetch] Refresh failed", e.getCause());
+      }
+    }
+    if (!candidates.isEmpty()) {
+      log.info("[prefetch] Refreshed {} of {} stale weather cells", refreshedNow.get(), candidates.size());
+    }
+  }
+
+  private boolean takeBudget() {
+    synchronized (budget) {
+      long now = System.nanoTime();
+      if (budget.nanosUntilAvailable(now) > 0) {
+        return false;
+      }
+      budget.take(now);
+      return true;
+    }
+  }
+
+  private void takeExtra(int upstreamCalls) {
+    synchronized (budget) {
+      long now = System.nanoTime();
+      for (int i = 1; i < upstreamCalls; i++) {
+        budget.take(now);
+      }
+    }
+  }
+
+  public long refreshed() {
+    return refreshed.sum();
+  }
+
+  public long failed() {
+    return failed.sum();
+  }
+
+  public long deferred() {
+    return deferred.sum();
+  }
+
+  /**
+   * Distinct cells of the saved locations whose forecast is missing or due, most recently used first.
+   * Cells not asked for since startup come last, cells idle for longer than {@code maxIdle} are skipped.
+   */
+  private List<Candidate> candidates() {
+    Map<CachingWeatherService.Cell, Candidate> cells = new HashMap<>();
+    long idleSince = System.currentTimeMillis() - properties.getMaxIdle().toMillis();
+    chatStateStore.forEach((chatId, state) -> {
+      if (state.hasLocation()) {
+        CachingWeatherService.Cell cell = weatherService.cell(state.latitude(), state.longitude());
+        cells.computeIfAbsent(cell, c -> new Candidate(c, weatherService.lastUsed(c)));
+      }
+    });
+
+    List<Candidate> candidates = new ArrayList<>();
+    for (Candidate candidate : cells.values()) {
+      boolean idle = candidate.lastUsed() != 0 && candidate.lastUsed() < idleSince;
+      if (!idle && !weatherService.isFresh(candidate.cell(), properties.getRefreshAfter())) {
+        candidates.add(candidate);
+      }
+    }
+    candidates.sort(Comparator.comparingLong(Candidate::lastUsed).reversed());
+    return candidates;
+  }
+
+  @Override
+  public void destroy() {
+    executor.shutdownNow();
+  }
+
+  private record Candidate(CachingWeatherService.Cell cell, long lastUsed) {
+  }
+}
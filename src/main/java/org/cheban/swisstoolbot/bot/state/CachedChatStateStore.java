@@ -0,0 +1,119 @@
+package org.cheban.swisstoolbot.bot.state;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Keeps every chat seen since startup in memory and writes changed chats to the persistence
+ * in batches, one commit per {@code flushInterval}.
+ */
+@Slf4j
+public class CachedChatStateStore implements ChatStateStore {
+  private final LongObjectMap<ChatState> states = new LongObjectMap<>();
+  private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+  private final ChatStatePersistence persistence;
+  private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+          Thread.ofPlatform().name("chat-state-flush").daemon().factory());
+  private final LongAdder flushes = new LongAdder();
+  private final LongAdder flushedStates = new LongAdder();
+  private final LongFunction<ChatState> loader = this::load;
+
+  public CachedChatStateStore(ChatStatePersistence persistence, Duration flushInterval) {
+    this.persistence = persistence;
+    long intervalMillis = flushInterval.toMillis();
+    flusher.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public ChatState get(long chatId) {
+    return states.computeIfAbsent(chatId, loader);
+  }
+
+  @Override
+  public void update(long chatId, UnaryOperator<ChatState> mutation) {
+    get(chatId);
+    states.compute(chatId, mutation);
+    dirty.add(chatId);
+  }
+
+  @Override
+  public void forEach(Visitor visitor) {
+    states.forEach(visitor::visit);
+    // the chats in memory may be newer than what was flushed
+    persistence.forEach((chatId, state) -> {
+      if (states.get(chatId) == null) {
+        visitor.visit(chatId, state);
+      }
+    });
+  }
+
+  public int size() {
+    return states.size();
+  }
+
+  public long flushes() {
+    return flushes.sum();
+  }
+
+  public long flushedStates() {
+    return flushedStates.sum();
+  }
+
+  public synchronized void flush() {
+    if (dirty.isEmpty()) {
+      sync();
+      return;
+    }
+
+    Map<Long, ChatState> batch = new HashMap<>();
+    for (Long chatId : dirty) {
+      // removed before reading, so an update racing with the flush marks the chat dirty again
+      dirty.remove(chatId);
+      batch.put(chatId, states.get(chatId));
+    }
+    try {
+      persistence.store(batch);
+      flushes.increment();
+      flushedStates.add(batch.size());
+    } catch (RuntimeException e) {
+      dirty.addAll(batch.keySet());
+      log.error("[flush] Could not save {} chat states", batch.size(), e);
+    }
+  }
+
+  private void sync() {
+    try {
+      persistence.sync();
+    } catch (RuntimeException e) {
+      log.error("[flush] Could not sync chat states", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+    persistence.close();
+  }
+
+  private ChatState load(long chatId) {
+    ChatState state = persistence.load(chatId);
+    return state != null ? state : ChatState.DEFAULT;
+  }
+}
@@ -0,0 +1,67 @@
+package org.cheban.swisstoolbot.bot.state;
+
+import org.cheban.swisstoolbot.objects.Units;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Everything the bot keeps for a chat. Instances are immutable, a missing location is stored as NaN coordinates.
+ * A null {@code units}, {@code locale} or {@code forecastTemplate} means the bot-wide default.
+ */
+public record ChatState(double latitude,
+                        double longitude,
+                        String locationName,
+                        boolean locationKeyboardVisible,
+                        int searchNum,
+                        int searchNumImg,
+                        Units units,
+                        String locale,
+                        String forecastTemplate) implements Serializable {
+  @Serial
+  private static final long serialVersionUID = 1L;
+
+  public static final int SEARCH_DEFAULT = 5;
+  public static final int SEARCH_DEFAULT_IMG = 10;
+  public static final ChatState DEFAULT =
+          new ChatState(Double.NaN, Double.NaN, null, false, SEARCH_DEFAULT, SEARCH_DEFAULT_IMG, null, null, null);
+
+  public boolean hasLocation() {
+    return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+  }
+
+  public ChatState withLocation(double lat, double lon, String name) {
+    return new ChatState(lat, lon, name, locationKeyboardVisible, searchNum, searchNumImg, units, locale,
+            forecastTemplate);
+  }
+
+  public ChatState withLocationKeyboardVisible(boolean visible) {
+    return new ChatState(latitude, longitude, locationName, visible, searchNum, searchNumImg, units, locale,
+            forecastTemplate);
+  }
+
+  public ChatState withSearchNum(int num) {
+    return new ChatState(latitude, longitude, locationName, locationKeyboardVisible, num, searchNumImg, units, locale,
+            forecastTemplate);
+  }
+
+  public ChatState withSearchNumImg(int num) {
+    return new ChatState(latitude, longitude, locationName, locationKeyboardVisible, searchNum, num, units, locale,
+            forecastTemplate);
+  }
+
+  public ChatState withUnits(Units units) {
+    return new ChatState(latitude, longitude, locationName, locationKeyboardVisible, searchNum, searchNumImg, units, locale,
+            forecastTemplate);
+  }
+
+  public ChatState withLocale(String locale) {
+    return new ChatState(latitude, longitude, locationName, locationKeyboardVisible, searchNum, searchNumImg, units, locale,
+            forecastTemplate);
+  }
+
+  public ChatState withForecastTemplate(String template) {
+    return new ChatState(latitude, longitude, locationName, locationKeyboardVisible, searchNum, searchNumImg, units, locale,
+            template);
+  }
+}
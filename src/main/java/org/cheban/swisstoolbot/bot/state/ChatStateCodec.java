@@ -0,0 +1,84 @@
+package org.cheban.swisstoolbot.bot.state;
+
+import org.cheban.swisstoolbot.objects.Units;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary form of {@link ChatState}, the first byte is the format version.
+ * Version 2 appended the forecast preferences, version 1 records are still read.
+ */
+final class ChatStateCodec {
+  private static final byte VERSION = 2;
+  private static final byte VERSION_1 = 1;
+  private static final int KEYBOARD_VISIBLE = 1;
+  private static final Units[] UNITS = Units.values();
+
+  private ChatStateCodec() {
+  }
+
+  static byte[] encode(ChatState state) {
+    byte[] name = bytes(state.locationName());
+    byte[] locale = bytes(state.locale());
+    byte[] template = bytes(state.forecastTemplate());
+    ByteBuffer buf = ByteBuffer.allocate(1 + 2 * Double.BYTES + 1 + 2 * Integer.BYTES + 1 +
+            length(name) + length(locale) + length(template));
+    buf.put(VERSION)
+            .putDouble(state.latitude())
+            .putDouble(state.longitude())
+            .put((byte) (state.locationKeyboardVisible() ? KEYBOARD_VISIBLE : 0))
+            .putInt(state.searchNum())
+            .putInt(state.searchNumImg())
+            .put((byte) (state.units() != null ? state.units().ordinal() : -1));
+    put(buf, name);
+    put(buf, locale);
+    put(buf, template);
+    return buf.array();
+  }
+
+  static ChatState decode(ByteBuffer buf) {
+    byte version = buf.get();
+    if (version != VERSION && version != VERSION_1) {
+      throw new IllegalArgumentException("Unsupported chat state version: " + version);
+    }
+
+    double lat = buf.getDouble();
+    double lon = buf.getDouble();
+    boolean keyboardVisible = (buf.get() & KEYBOARD_VISIBLE) != 0;
+    int searchNum = buf.getInt();
+    int searchNumImg = buf.getInt();
+    if (version == VERSION_1) {
+      return new ChatState(lat, lon, string(buf), keyboardVisible, searchNum, searchNumImg, null, null, null);
+    }
+
+    byte units = buf.get();
+    return new ChatState(lat, lon, string(buf), keyboardVisible, searchNum, searchNumImg,
+            units >= 0 && units < UNITS.length ? UNITS[units] : null, string(buf), string(buf));
+  }
+
+  private static byte[] bytes(String value) {
+    return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+  }
+
+  private static int length(byte[] value) {
+    return Integer.BYTES + (value != null ? value.length : 0);
+  }
+
+  private static void put(ByteBuffer buf, byte[] value) {
+    buf.putInt(value != null ? value.length : -1);
+    if (value != null) {
+      buf.put(value);
+    }
+  }
+
+  private static String string(ByteBuffer buf) {
+    int length = buf.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,29 @@
+package org.cheban.swisstoolbot.bot.state;
+
+import java.util.Map;
+
+/**
+ * Durable tier behind {@link CachedChatStateStore}.
+ */
+public interface ChatStatePersistence extends AutoCloseable {
+  /**
+   * Returns the stored state or {@code null} if the chat is unknown.
+   */
+  ChatState load(long chatId);
+
+  void store(Map<Long, ChatState> batch);
+
+  /**
+   * Visits every stored chat, including the ones not loaded since startup.
+   */
+  void forEach(ChatStateStore.Visitor visitor);
+
+  /**
+   * Called on every flush, including the ones without changes, so pending writes can be made durable.
+   */
+  default void sync() {
+  }
+
+  @Override
+  void close();
+}
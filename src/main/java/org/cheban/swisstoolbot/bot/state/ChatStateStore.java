@@ -0,0 +1,24 @@
+package org.cheban.swisstoolbot.bot.state;
+
+import java.util.function.UnaryOperator;
+
+public interface ChatStateStore extends AutoCloseable {
+  ChatState get(long chatId);
+
+  /**
+   * Applies {@code mutation} atomically, concurrent updates of the same chat are never lost.
+   */
+  void update(long chatId, UnaryOperator<ChatState> mutation);
+
+  /**
+   * Visits every known chat, the ones not seen since startup are read from storage without being cached.
+   */
+  void forEach(Visitor visitor);
+
+  @Override
+  void close();
+
+  interface Visitor {
+    void visit(long chatId, ChatState state);
+  }
+}
@@ -0,0 +1,103 @@
+package org.cheban.swisstoolbot.bot.state;
+
+import lombok.extern.slf4j.Slf4j;
+import org.telegram.abilitybots.api.db.DBContext;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores one {@link ChatState} per chat in a map of the bot database.
+ * Chats saved by older versions as separate {@code chatId:NAME} vars are migrated on first access and their vars
+ * cleared.
+ */
+@Slf4j
+public class DbChatStatePersistence implements ChatStatePersistence {
+  private static final String CHAT_STATES = "CHAT_STATES";
+  private static final String LOCATION_LAT = "LOCATION_LAT";
+  private static final String LOCATION_LON = "LOCATION_LON";
+  private static final String LOCATION_NAME = "LOCATION_NAME";
+  private static final String LOCATION_KB_VISIBLE = "LOCATION_KB_VISIBLE";
+  private static final String SEARCH_NUM = "SEARCH_NUM";
+  private static final String SEARCH_NUM_IMG = "SEARCH_NUM_IMG";
+  private static final List<String> LEGACY_VARS = List.of(
+          LOCATION_LAT, LOCATION_LON, LOCATION_NAME, LOCATION_KB_VISIBLE, SEARCH_NUM, SEARCH_NUM_IMG);
+
+  private final DBContext db;
+  private final Map<Long, ChatState> states;
+
+  public DbChatStatePersistence(DBContext db) {
+    this.db = db;
+    this.states = db.getMap(CHAT_STATES);
+  }
+
+  @Override
+  public ChatState load(long chatId) {
+    ChatState state = states.get(chatId);
+    return state != null ? state : migrate(chatId);
+  }
+
+  @Override
+  public void store(Map<Long, ChatState> batch) {
+    states.putAll(batch);
+    db.commit();
+  }
+
+  @Override
+  public void forEach(ChatStateStore.Visitor visitor) {
+    // chats still kept as legacy vars are left out, they are migrated once they write to the bot
+    states.forEach(visitor::visit);
+  }
+
+  @Override
+  public void close() {
+    // the database belongs to the bot
+  }
+
+  private ChatState migrate(long chatId) {
+    Double lat = legacyVar(chatId, LOCATION_LAT);
+    Double lon = legacyVar(chatId, LOCATION_LON);
+    String name = legacyVar(chatId, LOCATION_NAME);
+    Boolean keyboardVisible = legacyVar(chatId, LOCATION_KB_VISIBLE);
+    Integer searchNum = legacyVar(chatId, SEARCH_NUM);
+    Integer searchNumImg = legacyVar(chatId, SEARCH_NUM_IMG);
+    if (lat == null && lon == null && name == null && keyboardVisible == null && searchNum == null && searchNumImg == null) {
+      return null;
+    }
+
+    ChatState state = new ChatState(
+            lat != null ? lat : Double.NaN,
+            lon != null ? lon : Double.NaN,
+            name,
+            Boolean.TRUE.equals(keyboardVisible),
+            searchNum != null ? searchNum : ChatState.SEARCH_DEFAULT,
+            searchNumImg != null ? searchNumImg : ChatState.SEARCH_DEFAULT_IMG,
+            null, null, null);
+    // committed together with the next batch
+    states.put(chatId, state);
+    clearLegacyVars(chatId);
+    log.info("[migrate] Migrated state of chat {}", chatId);
+    return state;
+  }
+
+  private <T> T legacyVar(long chatId, String name) {
+    String key = legacyKey(chatId, name);
+    return db.contains(key) ? db.<T>getVar(key).get() : null;
+  }
+
+  /**
+   * The database has no way to drop a named var, so a migrated var is emptied, which frees its value.
+   */
+  private void clearLegacyVars(long chatId) {
+    for (String name : LEGACY_VARS) {
+      String key = legacyKey(chatId, name);
+      if (db.contains(key)) {
+        db.getVar(key).set(null);
+      }
+    }
+  }
+
+  private static String legacyKey(long chatId, String name) {
+    return chatId + ":" + name;
+  }
+}
@@ -0,0 +1,326 @@
+package org.cheban.swisstoolbot.bot.state;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of chat states. Every record is {@code length, chatId, payload, crc32}; the latest record of a chat wins.
+ * Only the position of the latest record per chat is kept in memory, states are read back from the file on demand.
+ * <p>
+ * Appends are forced to disk at most once per durability window. On startup the log is replayed through memory-mapped
+ * windows and a torn or corrupt tail is truncated. The log is compacted into a fresh file with one record per chat
+ * once it is {@code compactionRatio} times larger than its live records.
+ * <p>
+ * Chats not found in the log are read from {@code fallback}, so switching from the database keeps existing settings.
+ */
+@Slf4j
+public class LogChatStatePersistence implements ChatStatePersistence {
+  private static final int MAGIC = 0x43534C31;
+  private static final int HEADER_SIZE = Integer.BYTES;
+  private static final int RECORD_OVERHEAD = Integer.BYTES + Long.BYTES + Integer.BYTES;
+  private static final int MAX_PAYLOAD = 64 * 1024;
+  private static final long MAP_WINDOW = 64L * 1024 * 1024;
+  private static final int LENGTH_BITS = 24;
+
+  private final Path file;
+  private final ChatStatePersistence fallback;
+  private final long durabilityWindowNanos;
+  private final long compactionMinBytes;
+  private final double compactionRatio;
+  // chatId -> record offset << LENGTH_BITS | record length
+  private LongObjectMap<Long> index = new LongObjectMap<>();
+  private FileChannel channel;
+  private long size;
+  private long liveBytes;
+  private long lastSync = System.nanoTime();
+  private boolean unsynced;
+
+  public LogChatStatePersistence(BotProperties.State properties, ChatStatePersistence fallback) {
+    this.file = properties.getFile();
+    this.fallback = fallback;
+    this.durabilityWindowNanos = properties.getDurabilityWindow().toNanos();
+    this.compactionMinBytes = properties.getCompactionMinBytes();
+    this.compactionRatio = properties.getCompactionRatio();
+    try {
+      Path parent = file.toAbsolutePath().getParent();
+      Files.createDirectories(parent);
+      this.channel = open(file);
+      replay();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not open chat state log " + file, e);
+    }
+  }
+
+  @Override
+  public synchronized ChatState load(long chatId) {
+    Long location = index.get(chatId);
+    if (location == null) {
+      return fallback.load(chatId);
+    }
+
+    try {
+      ByteBuffer record = read(location);
+      return ChatStateCodec.decode(record.position(Integer.BYTES + Long.BYTES));
+    } catch (IOException | RuntimeException e) {
+      log.error("[load] Could not read state of chat {} from {}", chatId, file, e);
+      return fallback.load(chatId);
+    }
+  }
+
+  @Override
+  public synchronized void store(Map<Long, ChatState> batch) {
+    try {
+      append(batch);
+      sync();
+      if (size > compactionMinBytes && size > liveBytes * compactionRatio) {
+        compact();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public synchronized void forEach(ChatStateStore.Visitor visitor) {
+    index.forEach((chatId, location) -> {
+      ChatState state;
+      try {
+        state = ChatStateCodec.decode(read(location).position(Integer.BYTES + Long.BYTES));
+      } catch (IOException | RuntimeException e) {
+        log.error("[forEach] Could not read state of chat {} from {}", chatId, file, e);
+        return;
+      }
+      visitor.visit(chatId, state);
+    });
+    fallback.forEach((chatId, state) -> {
+      if (index.get(chatId) == null) {
+        visitor.visit(chatId, state);
+      }
+    });
+  }
+
+  @Override
+  public synchronized void sync() {
+    if (unsynced && System.nanoTime() - lastSync >= durabilityWindowNanos) {
+      force();
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    try {
+      force();
+      channel.close();
+    } catch (IOException | UncheckedIOException e) {
+      log.error("[close] Could not close chat state log {}", file, e);
+    }
+    fallback.close();
+  }
+
+  private void append(Map<Long, ChatState> batch) throws IOException {
+    byte[][] payloads = new byte[batch.size()][];
+    long[] chatIds = new long[batch.size()];
+    int total = 0;
+    int n = 0;
+    for (Map.Entry<Long, ChatState> e : batch.entrySet()) {
+      chatIds[n] = e.getKey();
+      payloads[n] = ChatStateCodec.encode(e.getValue());
+      total += RECORD_OVERHEAD + payloads[n].length;
+      n++;
+    }
+
+    ByteBuffer buf = ByteBuffer.allocate(total);
+    for (int i = 0; i < n; i++) {
+      int start = buf.position();
+      buf.putInt(payloads[i].length).putLong(chatIds[i]).put(payloads[i]);
+      buf.putInt(crc(buf, start + Integer.BYTES, Long.BYTES + payloads[i].length));
+    }
+    write(channel, buf.flip(), size);
+    unsynced = true;
+
+    long offset = size;
+    for (int i = 0; i < n; i++) {
+      int length = RECORD_OVERHEAD + payloads[i].length;
+      index(chatIds[i], offset, length);
+      offset += length;
+    }
+    size = offset;
+  }
+
+  private void replay() throws IOException {
+    long fileSize = channel.size();
+    if (fileSize < HEADER_SIZE) {
+      channel.truncate(0);
+      write(channel, ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).flip(), 0);
+      channel.force(true);
+      size = HEADER_SIZE;
+      return;
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    channel.read(header, 0);
+    if (header.getInt(0) != MAGIC) {
+      throw new IOException("Not a chat state log: " + file);
+    }
+
+    long position = HEADER_SIZE;
+    while (position < fileSize) {
+      MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, fileSize - position));
+      int consumed = replay(window, position);
+      if (consumed == 0) {
+        break;
+      }
+      position += consumed;
+    }
+
+    if (position < fileSize) {
+      log.warn("[replay] Truncating {} bytes of torn or corrupt records from {}", fileSize - position, file);
+      channel.truncate(position);
+      channel.force(true);
+    }
+    size = position;
+    log.info("[replay] Loaded {} chat states from {}", index.size(), file);
+  }
+
+  /**
+   * Indexes the complete, valid records at the start of {@code window} and returns how many bytes they take.
+   */
+  private int replay(ByteBuffer window, long base) {
+    int position = 0;
+    while (window.limit() - position >= RECORD_OVERHEAD) {
+      int length = window.getInt(position);
+      if (length < 0 || length > MAX_PAYLOAD || window.limit() - position < RECORD_OVERHEAD + length) {
+        break;
+      }
+      int crc = window.getInt(position + Integer.BYTES + Long.BYTES + length);
+      if (crc != crc(window, position + Integer.BYTES, Long.BYTES + length)) {
+        break;
+      }
+
+      index(window.getLong(position + Integer.BYTES), base + position, RECORD_OVERHEAD + length);
+      position += RECORD_OVERHEAD + length;
+    }
+    return position;
+  }
+
+  private void compact() throws IOException {
+    Path tmp = file.resolveSibling(file.getFileName() + ".compact");
+    LongObjectMap<Long> compacted = new LongObjectMap<>();
+    long[] position = {HEADER_SIZE};
+    try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      write(out, ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).flip(), 0);
+      try {
+        index.forEach((chatId, location) -> {
+          try {
+            ByteBuffer record = read(location);
+            int length = record.remaining();
+            write(out, record, position[0]);
+            compacted.put(chatId, position[0] << LENGTH_BITS | length);
+            position[0] += length;
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      out.force(true);
+    }
+
+    long before = size;
+    channel.close();
+    try {
+      move(tmp, file);
+    } catch (IOException e) {
+      // the old log is still in place, keep appending to it and try again on a later store
+      channel = open(file);
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+    index = compacted;
+    size = position[0];
+    liveBytes = size - HEADER_SIZE;
+    // the rename lives in the directory, without this a crash can bring the old log back
+    forceDirectory(file.toAbsolutePath().getParent());
+    channel = open(file);
+    unsynced = false;
+    lastSync = System.nanoTime();
+    log.info("[compact] Compacted {} from {} to {} bytes", file, before, size);
+  }
+
+  /**
+   * Replaces the log with the compacted file.
+   */
+  void move(Path source, Path target) throws IOException {
+    Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private void index(long chatId, long offset, int length) {
+    Long previous = index.get(chatId);
+    if (previous != null) {
+      liveBytes -= previous & ((1L << LENGTH_BITS) - 1);
+    }
+    index.put(chatId, offset << LENGTH_BITS | length);
+    liveBytes += length;
+  }
+
+  private ByteBuffer read(long location) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate((int) (location & ((1L << LENGTH_BITS) - 1)));
+    long offset = location >>> LENGTH_BITS;
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, offset + buf.position()) < 0) {
+        throw new IOException("Unexpected end of " + file);
+      }
+    }
+    return buf.flip();
+  }
+
+  private void force() {
+    try {
+      channel.force(false);
+      unsynced = false;
+      lastSync = System.nanoTime();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void write(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+    long offset = position;
+    while (buf.hasRemaining()) {
+      offset += channel.write(buf, offset);
+    }
+  }
+
+  private static int crc(ByteBuffer buf, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(buf.slice(offset, length));
+    return (int) crc.getValue();
+  }
+
+  private static void forceDirectory(Path dir) {
+    try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // not every platform can open a directory, Windows makes the rename durable on its own
+      log.debug("[compact] Could not sync directory {}: {}", dir, e.getMessage());
+    }
+  }
+
+  private static FileChannel open(Path file) throws IOException {
+    return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+}
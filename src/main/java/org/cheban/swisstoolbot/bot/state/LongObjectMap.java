@@ -0,0 +1,186 @@
+package org.cheban.swisstoolbot.bot.state;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Open addressing hash map keyed by primitive {@code long}. Reads are optimistic and lock free,
+ * writes are serialized. {@link Long#MIN_VALUE} marks an empty slot and can't be used as a key.
+ */
+final class LongObjectMap<V> {
+  private static final long EMPTY = Long.MIN_VALUE;
+  private static final int INITIAL_CAPACITY = 256;
+
+  private final StampedLock lock = new StampedLock();
+  private volatile Table table = new Table(INITIAL_CAPACITY);
+  private int size;
+
+  V get(long key) {
+    long stamp = lock.tryOptimisticRead();
+    V value = find(table, key);
+    if (lock.validate(stamp)) {
+      return value;
+    }
+
+    stamp = lock.readLock();
+    try {
+      return find(table, key);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  V computeIfAbsent(long key, LongFunction<V> loader) {
+    V value = get(key);
+    if (value != null) {
+      return value;
+    }
+
+    // loading happens outside the lock, a concurrent load of the same key keeps the first value
+    V loaded = loader.apply(key);
+    long stamp = lock.writeLock();
+    try {
+      V existing = find(table, key);
+      if (existing != null) {
+        return existing;
+      }
+      insert(key, loaded);
+      return loaded;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Replaces the value under the write lock, {@code remapping} must be fast and must not touch the map.
+   */
+  V compute(long key, UnaryOperator<V> remapping) {
+    long stamp = lock.writeLock();
+    try {
+      V value = remapping.apply(find(table, key));
+      insert(key, value);
+      return value;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  void put(long key, V value) {
+    long stamp = lock.writeLock();
+    try {
+      insert(key, value);
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Visits every entry under the read lock, writes wait until the iteration is over.
+   */
+  @SuppressWarnings("unchecked")
+  void forEach(Visitor<V> visitor) {
+    long stamp = lock.readLock();
+    try {
+      Table t = table;
+      for (int i = 0; i < t.keys.length; i++) {
+        if (t.keys[i] != EMPTY) {
+          visitor.visit(t.keys[i], (V) t.values[i]);
+        }
+      }
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  int size() {
+    long stamp = lock.readLock();
+    try {
+      return size;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private V find(Table t, long key) {
+    checkKey(key);
+    long[] keys = t.keys;
+    int mask = keys.length - 1;
+    for (int i = index(key, mask); ; i = (i + 1) & mask) {
+      long k = keys[i];
+      if (k == key) {
+        return (V) t.values[i];
+      }
+      if (k == EMPTY) {
+        return null;
+      }
+    }
+  }
+
+  private void insert(long key, V value) {
+    Table t = table;
+    long[] keys = t.keys;
+    int mask = keys.length - 1;
+    for (int i = index(key, mask); ; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        t.values[i] = value;
+        return;
+      }
+      if (keys[i] == EMPTY) {
+        t.values[i] = value;
+        keys[i] = key;
+        if (++size * 2 > keys.length) {
+          resize();
+        }
+        return;
+      }
+    }
+  }
+
+  private void resize() {
+    Table old = table;
+    Table resized = new Table(old.keys.length * 2);
+    int mask = resized.keys.length - 1;
+    for (int j = 0; j < old.keys.length; j++) {
+      long key = old.keys[j];
+      if (key != EMPTY) {
+        int i = index(key, mask);
+        while (resized.keys[i] != EMPTY) {
+          i = (i + 1) & mask;
+        }
+        resized.keys[i] = key;
+        resized.values[i] = old.values[j];
+      }
+    }
+    table = resized;
+  }
+
+  private static int index(long key, int mask) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+  private static void checkKey(long key) {
+    if (key == EMPTY) {
+      throw new IllegalArgumentException("Unsupported key: " + key);
+    }
+  }
+
+  @FunctionalInterface
+  interface Visitor<V> {
+    void visit(long key, V value);
+  }
+
+  private static final class Table {
+    private final long[] keys;
+    private final Object[] values;
+
+    private Table(int capacity) {
+      this.keys = new long[capacity];
+      this.values = new Object[capacity];
+      Arrays.fill(keys, EMPTY);
+    }
+  }
+}
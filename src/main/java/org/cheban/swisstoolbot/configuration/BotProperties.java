@@ -1,9 +1,18 @@
 package org.cheban.swisstoolbot.configuration;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.cheban.swisstoolbot.objects.Units;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 @Configuration
@@ -16,4 +25,271 @@ public class BotProperties {
   private Set<Long> whitelist;
   private String positionStackToken;
   private String openWeatherMapToken;
+  /**
+   * Bot API base URL including the trailing {@code /bot}, the public Telegram API if not set.
+   */
+  private String apiBaseUrl;
+  private Dispatcher dispatcher = new Dispatcher();
+  private Http http = new Http();
+  private Weather weather = new Weather();
+  private WeatherCache weatherCache = new WeatherCache();
+  private Forecast forecast = new Forecast();
+  private GeocodeCache geocodeCache = new GeocodeCache();
+  private SearchCache searchCache = new SearchCache();
+  private MediaCache mediaCache = new MediaCache();
+  private Documents documents = new Documents();
+  private ImageValidation imageValidation = new ImageValidation();
+  private Outbound outbound = new Outbound();
+  private State state = new State();
+  private Metrics metrics = new Metrics();
+
+  @Data
+  public static class Dispatcher {
+    private int maxConcurrentUpdates = 64;
+    private int chatBacklog = 16;
+  }
+
+  @Data
+  public static class Http {
+    private Duration connectTimeout = Duration.ofSeconds(2);
+    private Duration requestTimeout = Duration.ofSeconds(2);
+    /**
+     * Upper bound for reading a whole response body, a body stalling for {@code requestTimeout} fails earlier.
+     */
+    private Duration bodyTimeout = Duration.ofSeconds(10);
+    private Map<String, HostTimeouts> hosts = new HashMap<>();
+    /**
+     * Sends requests for a host to another base URL, e.g. {@code api.openweathermap.org: http://127.0.0.1:18080}.
+     */
+    private Map<String, String> hostOverrides = new HashMap<>();
+    private Resilience resilience = new Resilience();
+  }
+
+  /**
+   * Per-host circuit breakers, bulkheads, adaptive timeouts and retry budgets, applied to every upstream call.
+   */
+  @Data
+  public static class Resilience {
+    /**
+     * The request timeout is {@code p99 * timeoutMultiplier} of recent calls, between {@code minTimeout}
+     * and the configured request timeout of the host.
+     */
+    private double timeoutMultiplier = 2;
+    private Duration minTimeout = Duration.ofMillis(250);
+    private int latencyWindow = 256;
+    private int minLatencySamples = 32;
+    /**
+     * The circuit opens when at least {@code failureRateThreshold} of the last {@code failureWindow} calls failed.
+     */
+    private double failureRateThreshold = 0.5;
+    private int failureWindow = 20;
+    private int minCalls = 10;
+    private Duration openDuration = Duration.ofSeconds(30);
+    private int halfOpenProbes = 1;
+    private int maxConcurrent = 16;
+    private Duration maxWait = Duration.ofMillis(100);
+    /**
+     * Attempts per call including the first; retries only happen while the host's retry budget,
+     * {@code retryRatio} tokens per call up to {@code retryBurst}, allows.
+     */
+    private int maxAttempts = 2;
+    private double retryRatio = 0.1;
+    private double retryBurst = 10;
+    private Duration retryBackoff = Duration.ofMillis(100);
+  }
+
+  @Data
+  public static class HostTimeouts {
+    private Duration connectTimeout;
+    private Duration requestTimeout;
+  }
+
+  @Data
+  public static class Weather {
+    /**
+     * Providers in their initial order: {@code openweathermap}, {@code openmeteo}.
+     */
+    private List<String> providers = List.of("openweathermap", "openmeteo");
+    private Duration hedgeDelay = Duration.ofMillis(500);
+    private Duration timeout = Duration.ofSeconds(5);
+    /**
+     * Orders providers by their smoothed latency instead of the configured order.
+     */
+    private boolean ranking = true;
+    private double latencySmoothing = 0.2;
+    private Prefetch prefetch = new Prefetch();
+  }
+
+  /**
+   * Keeps forecasts for the saved locations of recently active chats in the weather cache.
+   */
+  @Data
+  public static class Prefetch {
+    private boolean enabled = true;
+    private Duration interval = Duration.ofMinutes(1);
+    /**
+     * Upstream forecast calls the prefetcher may make per minute, keep it well inside the provider quota.
+     */
+    private int callsPerMinute = 10;
+    /**
+     * Cells refreshed at the same time.
+     */
+    private int maxConcurrent = 4;
+    /**
+     * Cached forecasts older than this are refreshed, should be below {@code bot.weather-cache.ttl}.
+     */
+    private Duration refreshAfter = Duration.ofMinutes(8);
+    /**
+     * Cells whose forecast wasn't asked for within this period are left to expire.
+     */
+    private Duration maxIdle = Duration.ofDays(2);
+  }
+
+  @Data
+  public static class WeatherCache {
+    private int precision = 2;
+    private Duration ttl = Duration.ofMinutes(10);
+    private long maxSize = 10_000;
+  }
+
+  /**
+   * Forecast message rendering. Templates use {@code {name}}, {@code {icon}}, {@code {temp}} and {@code {feels}}
+   * in the header and {@code {weekday}}, {@code {day}}, {@code {month}}, {@code {icon}}, {@code {max}}, {@code {min}},
+   * {@code {feels_max}} and {@code {feels_min}} in the day line; {@code {{}} is a literal brace.
+   */
+  @Data
+  public static class Forecast {
+    private String template = "full";
+    private Units units = Units.METRIC;
+    private Locale locale = Locale.ENGLISH;
+    private Map<String, Template> templates = new HashMap<>(Map.of(
+            "full", new Template("Weather for {name}\n\nCurrently {icon} {temp}° (FL {feels}°)\n\n",
+                    "{weekday} {day} {month} {icon} {max}° / {min}° (FL {feels_max}° / {feels_min}°)"),
+            "compact", new Template("{name}: {icon} {temp}°\n",
+                    "{weekday} {day} {icon} {max}°/{min}°")));
+  }
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class Template {
+    private String header;
+    private String day;
+  }
+
+  @Data
+  public static class GeocodeCache {
+    private Path file = Path.of("geocode-cache.json");
+    private Duration ttl = Duration.ofDays(30);
+    private double reverseRadiusMeters = 200;
+    /**
+     * Bound of each index, queries for forward and points for reverse lookups; the least used are evicted.
+     */
+    private long maxEntries = 20_000;
+  }
+
+  @Data
+  public static class SearchCache {
+    /**
+     * Memory bound in cached results over all queries.
+     */
+    private long maxResults = 50_000;
+    /**
+     * Older entries are still served, but revalidated in the background.
+     */
+    private Duration fresh = Duration.ofMinutes(15);
+    private Duration ttl = Duration.ofHours(12);
+    /**
+     * JSON file for the hottest entries, no disk tier if not set.
+     */
+    private Path file;
+    private int diskEntries = 1000;
+    private Duration flushInterval = Duration.ofMinutes(5);
+  }
+
+  @Data
+  public static class MediaCache {
+    private Path file = Path.of("media-cache.json");
+    private int maxEntries = 20_000;
+    private Duration expireAfterAccess = Duration.ofDays(30);
+    private Duration flushInterval = Duration.ofMinutes(5);
+  }
+
+  /**
+   * How /doc sends a document: by handing the URL to Telegram, or by downloading it here and uploading the file.
+   */
+  @Data
+  public static class Documents {
+    /**
+     * FETCH makes the bot itself request user-given URLs; only public addresses are fetched, but it stays opt-in.
+     */
+    private Mode mode = Mode.URL;
+    /**
+     * Telegram takes uploads of up to 50 MB from bots.
+     */
+    private long maxBytes = 50L * 1024 * 1024;
+    /**
+     * Content types without parameters, a trailing {@code *} matches any subtype.
+     */
+    private List<String> allowedTypes = List.of("application/pdf", "application/zip", "application/gzip",
+            "application/x-7z-compressed", "application/x-tar", "application/epub+zip", "application/json",
+            "application/msword", "application/vnd.ms-*", "application/vnd.openxmlformats-officedocument.*",
+            "application/vnd.oasis.opendocument.*", "application/octet-stream", "text/plain", "text/csv",
+            "image/*", "audio/*", "video/*");
+    private int maxConcurrent = 4;
+    private Duration maxWait = Duration.ofSeconds(5);
+    private Duration transferTimeout = Duration.ofMinutes(2);
+    /**
+     * Downloads go to the system temp directory if not set.
+     */
+    private Path tempDir;
+
+    public enum Mode {
+      URL,
+      FETCH
+    }
+  }
+
+  @Data
+  public static class ImageValidation {
+    private int maxConcurrent = 32;
+    private int maxConcurrentPerHost = 4;
+    private Duration timeout = Duration.ofSeconds(5);
+    private long cacheSize = 10_000;
+    private Duration positiveTtl = Duration.ofHours(6);
+    private Duration negativeTtl = Duration.ofMinutes(10);
+    private int hostFailureThreshold = 3;
+    private Duration hostCooldown = Duration.ofMinutes(5);
+  }
+
+  @Data
+  public static class Outbound {
+    private double globalPerSecond = 30;
+    private double chatPerSecond = 1;
+    private int chatBurst = 3;
+    private int maxAttempts = 3;
+  }
+
+  @Data
+  public static class State {
+    private Mode mode = Mode.DB;
+    private Duration flushInterval = Duration.ofSeconds(1);
+    private Path file = Path.of("chat-state.log");
+    private Duration durabilityWindow = Duration.ofSeconds(1);
+    private long compactionMinBytes = 1024 * 1024;
+    private double compactionRatio = 4;
+
+    public enum Mode {
+      DB,
+      LOG
+    }
+  }
+
+  @Data
+  public static class Metrics {
+    private boolean export = true;
+    private Path file = Path.of("metrics.prom");
+    private Duration exportInterval = Duration.ofSeconds(15);
+    private boolean logSpans;
+  }
 }
@@ -0,0 +1,21 @@
+package org.cheban.swisstoolbot.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.cheban.swisstoolbot.util.HttpUtil;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@RequiredArgsConstructor
+public class HttpConfiguration {
+  private final BotProperties botProperties;
+  private final ObservationRegistry observationRegistry;
+  private final MeterRegistry meterRegistry;
+
+  @PostConstruct
+  public void init() {
+    HttpUtil.configure(botProperties.getHttp(), observationRegistry, meterRegistry);
+  }
+}
@@ -0,0 +1,18 @@
+package org.cheban.swisstoolbot.configuration;
+
+import io.opentelemetry.exporter.logging.LoggingSpanExporter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfiguration {
+  /**
+   * Logs finished spans, so an update can be followed to its upstream and Bot API calls without a tracing backend.
+   */
+  @Bean
+  @ConditionalOnProperty(name = "bot.metrics.log-spans", havingValue = "true")
+  public LoggingSpanExporter loggingSpanExporter() {
+    return LoggingSpanExporter.create();
+  }
+}
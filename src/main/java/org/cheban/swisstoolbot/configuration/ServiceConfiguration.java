@@ -0,0 +1,52 @@
+package org.cheban.swisstoolbot.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.cheban.swisstoolbot.service.impl.CachingGeocodeService;
+import org.cheban.swisstoolbot.service.impl.CachingWeatherService;
+import org.cheban.swisstoolbot.service.impl.CachingWebSearchService;
+import org.cheban.swisstoolbot.service.impl.DuckDuckGoWebSearchService;
+import org.cheban.swisstoolbot.service.impl.HedgingWeatherService;
+import org.cheban.swisstoolbot.service.impl.OpenMeteoWeatherService;
+import org.cheban.swisstoolbot.service.impl.OpenWeatherMapService;
+import org.cheban.swisstoolbot.service.impl.PositionstackGeocodeService;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.util.Map;
+
+@Configuration
+public class ServiceConfiguration {
+
+  @Bean
+  public HedgingWeatherService hedgingWeatherService(OpenWeatherMapService openWeatherMapService,
+                                                     OpenMeteoWeatherService openMeteoWeatherService,
+                                                     BotProperties botProperties,
+                                                     ObservationRegistry observationRegistry,
+                                                     MeterRegistry meterRegistry) {
+    return new HedgingWeatherService(
+            Map.of("openweathermap", openWeatherMapService, "openmeteo", openMeteoWeatherService),
+            botProperties.getWeather(), observationRegistry, meterRegistry);
+  }
+
+  @Bean
+  @Primary
+  public CachingWeatherService weatherService(HedgingWeatherService hedgingWeatherService, BotProperties botProperties) {
+    return new CachingWeatherService(hedgingWeatherService, botProperties.getWeatherCache());
+  }
+
+  @Bean
+  @Primary
+  public CachingWebSearchService webSearchService(DuckDuckGoWebSearchService duckDuckGoWebSearchService,
+                                                  BotProperties botProperties) {
+    return new CachingWebSearchService(duckDuckGoWebSearchService, botProperties.getSearchCache());
+  }
+
+  @Bean
+  @Primary
+  public CachingGeocodeService geocodeService(PositionstackGeocodeService positionstackGeocodeService,
+                                              BotProperties botProperties) {
+    return new CachingGeocodeService(positionstackGeocodeService, botProperties.getGeocodeCache());
+  }
+}
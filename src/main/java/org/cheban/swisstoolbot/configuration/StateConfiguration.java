@@ -0,0 +1,41 @@
+package org.cheban.swisstoolbot.configuration;
+
+import org.cheban.swisstoolbot.bot.state.CachedChatStateStore;
+import org.cheban.swisstoolbot.bot.state.ChatStatePersistence;
+import org.cheban.swisstoolbot.bot.state.DbChatStatePersistence;
+import org.cheban.swisstoolbot.bot.state.LogChatStatePersistence;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.telegram.abilitybots.api.db.DBContext;
+import org.telegram.abilitybots.api.db.MapDBContext;
+
+/**
+ * The bot database and the chat state store on top of it, persisted as chosen by {@code bot.state.mode}.
+ * The store closes its persistence, the database is closed after both.
+ */
+@Configuration
+public class StateConfiguration {
+
+  @Bean
+  public DBContext botDb(BotProperties botProperties) {
+    return MapDBContext.onlineInstance(botProperties.getUsername());
+  }
+
+  @Bean(destroyMethod = "")
+  @ConditionalOnProperty(name = "bot.state.mode", havingValue = "DB", matchIfMissing = true)
+  public ChatStatePersistence dbChatStatePersistence(DBContext botDb) {
+    return new DbChatStatePersistence(botDb);
+  }
+
+  @Bean(destroyMethod = "")
+  @ConditionalOnProperty(name = "bot.state.mode", havingValue = "LOG")
+  public ChatStatePersistence logChatStatePersistence(DBContext botDb, BotProperties botProperties) {
+    return new LogChatStatePersistence(botProperties.getState(), new DbChatStatePersistence(botDb));
+  }
+
+  @Bean
+  public CachedChatStateStore chatStateStore(ChatStatePersistence chatStatePersistence, BotProperties botProperties) {
+    return new CachedChatStateStore(chatStatePersistence, botProperties.getState().getFlushInterval());
+  }
+}
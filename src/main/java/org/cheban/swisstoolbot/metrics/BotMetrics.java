@@ -0,0 +1,115 @@
+package org.cheban.swisstoolbot.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import org.cheban.swisstoolbot.bot.OutboundQueue;
+import org.cheban.swisstoolbot.bot.SwissToolBot;
+import org.cheban.swisstoolbot.bot.UpdateDispatcher;
+import org.cheban.swisstoolbot.bot.WeatherPrefetcher;
+import org.cheban.swisstoolbot.bot.state.CachedChatStateStore;
+import org.cheban.swisstoolbot.service.impl.CachingGeocodeService;
+import org.cheban.swisstoolbot.service.impl.CachingWeatherService;
+import org.cheban.swisstoolbot.service.impl.CachingWebSearchService;
+import org.cheban.swisstoolbot.service.impl.ImageValidator;
+import org.cheban.swisstoolbot.service.impl.MediaCache;
+import org.springframework.stereotype.Component;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Exposes the counters the components keep themselves: dispatcher and outbound queue load, image validation
+ * and cache efficiency. Timers for abilities, upstream calls and Bot API calls come from observations.
+ */
+@Component
+@RequiredArgsConstructor
+public class BotMetrics implements MeterBinder {
+  private final UpdateDispatcher updateDispatcher;
+  private final OutboundQueue outboundQueue;
+  private final ImageValidator imageValidator;
+  private final MediaCache mediaCache;
+  private final CachingWeatherService weatherService;
+  private final CachingGeocodeService geocodeService;
+  private final CachingWebSearchService webSearchService;
+  private final WeatherPrefetcher weatherPrefetcher;
+  private final SwissToolBot bot;
+  private final CachedChatStateStore chatStateStore;
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    gauge(registry, "bot.updates.active", updateDispatcher, UpdateDispatcher::activeUpdates);
+    gauge(registry, "bot.updates.waiting", updateDispatcher, UpdateDispatcher::waitingUpdates);
+    gauge(registry, "bot.updates.chats", updateDispatcher, UpdateDispatcher::activeChats);
+    FunctionCounter.builder("bot.updates.dropped", updateDispatcher, UpdateDispatcher::droppedUpdates)
+            .register(registry);
+
+    gauge(registry, "bot.outbound.queue.depth", outboundQueue, OutboundQueue::depth);
+    gauge(registry, "bot.outbound.in.flight", outboundQueue, OutboundQueue::inFlight);
+    FunctionCounter.builder("bot.outbound.calls", outboundQueue, OutboundQueue::sent)
+            .tag("result", "sent")
+            .register(registry);
+    FunctionCounter.builder("bot.outbound.calls", outboundQueue, OutboundQueue::failed)
+            .tag("result", "failed")
+            .register(registry);
+    FunctionCounter.builder("bot.outbound.calls", outboundQueue, OutboundQueue::throttled)
+            .tag("result", "throttled")
+            .register(registry);
+    FunctionCounter.builder("bot.outbound.saved.calls", bot, SwissToolBot::savedApiCalls)
+            .register(registry);
+
+    gauge(registry, "bot.image.validation.active", imageValidator, ImageValidator::activeValidations);
+    gauge(registry, "bot.image.validation.waiting", imageValidator, ImageValidator::waitingValidations);
+    gauge(registry, "bot.image.validation.permits", imageValidator, ImageValidator::availablePermits);
+    FunctionCounter.builder("bot.image.validation.checks", imageValidator, ImageValidator::validations)
+            .register(registry);
+    FunctionCounter.builder("bot.image.validation.cancelled", imageValidator, ImageValidator::cancelledValidations)
+            .register(registry);
+    FunctionCounter.builder("bot.image.validation.skipped.hosts", imageValidator, ImageValidator::skippedHosts)
+            .register(registry);
+
+    cacheRequests(registry, "image", "hit", imageValidator, ImageValidator::cacheHits);
+    cacheRequests(registry, "media", "hit", mediaCache, MediaCache::hits);
+    cacheRequests(registry, "media", "miss", mediaCache, MediaCache::misses);
+    gauge(registry, "bot.media.cache.size", mediaCache, MediaCache::size);
+    FunctionCounter.builder("bot.media.cache.invalidated", mediaCache, MediaCache::invalidated)
+            .register(registry);
+    cacheRequests(registry, "weather", "hit", weatherService, s -> s.stats().hitCount());
+    cacheRequests(registry, "weather", "miss", weatherService, s -> s.stats().missCount());
+    FunctionCounter.builder("bot.weather.prefetch", weatherPrefetcher, WeatherPrefetcher::refreshed)
+            .tag("result", "refreshed")
+            .register(registry);
+    FunctionCounter.builder("bot.weather.prefetch", weatherPrefetcher, WeatherPrefetcher::failed)
+            .tag("result", "failed")
+            .register(registry);
+    FunctionCounter.builder("bot.weather.prefetch", weatherPrefetcher, WeatherPrefetcher::deferred)
+            .tag("result", "deferred")
+            .register(registry);
+    cacheRequests(registry, "search", "hit", webSearchService, CachingWebSearchService::searchHits);
+    cacheRequests(registry, "search", "stale", webSearchService, CachingWebSearchService::searchStaleHits);
+    cacheRequests(registry, "search", "miss", webSearchService, CachingWebSearchService::searchMisses);
+    cacheRequests(registry, "image.search", "hit", webSearchService, CachingWebSearchService::imageHits);
+    cacheRequests(registry, "image.search", "stale", webSearchService, CachingWebSearchService::imageStaleHits);
+    cacheRequests(registry, "image.search", "miss", webSearchService, CachingWebSearchService::imageMisses);
+    cacheRequests(registry, "geocode", "hit", geocodeService, CachingGeocodeService::hits);
+    cacheRequests(registry, "geocode", "miss", geocodeService, CachingGeocodeService::misses);
+
+    gauge(registry, "bot.chat.state.size", chatStateStore, CachedChatStateStore::size);
+    FunctionCounter.builder("bot.chat.state.flushes", chatStateStore, CachedChatStateStore::flushes)
+            .register(registry);
+    FunctionCounter.builder("bot.chat.state.flushed", chatStateStore, CachedChatStateStore::flushedStates)
+            .register(registry);
+  }
+
+  private static <T> void gauge(MeterRegistry registry, String name, T obj, ToDoubleFunction<T> f) {
+    Gauge.builder(name, obj, f).register(registry);
+  }
+
+  private static <T> void cacheRequests(MeterRegistry registry, String cache, String result, T obj,
+                                        ToDoubleFunction<T> f) {
+    FunctionCounter.builder("bot.cache.requests", obj, f)
+            .tags("cache", cache, "result", result)
+            .register(registry);
+  }
+}
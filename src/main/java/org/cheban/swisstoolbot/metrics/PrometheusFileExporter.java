@@ -0,0 +1,55 @@
+package org.cheban.swisstoolbot.metrics;
+
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes the Prometheus exposition to a file for the node_exporter textfile collector,
+ * the bot runs without a web server so there is no endpoint to scrape.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "bot.metrics.export", havingValue = "true", matchIfMissing = true)
+public class PrometheusFileExporter {
+  private final PrometheusMeterRegistry registry;
+  private final Path file;
+
+  public PrometheusFileExporter(ObjectProvider<PrometheusMeterRegistry> registry, BotProperties botProperties) {
+    this.registry = registry.getIfAvailable();
+    this.file = botProperties.getMetrics().getFile();
+  }
+
+  @Scheduled(fixedDelayString = "${bot.metrics.export-interval:PT15S}")
+  public void export() {
+    if (registry == null) {
+      return;
+    }
+
+    try {
+      Path parent = file.toAbsolutePath().getParent();
+      Files.createDirectories(parent);
+      Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+      Files.writeString(tmp, registry.scrape(), StandardCharsets.UTF_8);
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.error("[export] Could not write metrics to {}", file, e);
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    export();
+  }
+}
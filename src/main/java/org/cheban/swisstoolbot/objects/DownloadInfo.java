@@ -0,0 +1,3 @@
+package org.cheban.swisstoolbot.objects;
+
+public record DownloadInfo(String contentType, String contentDisposition, long size) {}
@@ -0,0 +1,15 @@
+package org.cheban.swisstoolbot.objects;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Provider independent forecast, temperatures in °C.
+ */
+public record Forecast(Current current, List<Day> days) {
+  public record Current(String icon, double temperature, double feelsLike) {
+  }
+
+  public record Day(LocalDate date, String icon, double max, double min, double feelsLikeMax, double feelsLikeMin) {
+  }
+}
@@ -0,0 +1,3 @@
+package org.cheban.swisstoolbot.objects;
+
+public record ImageInfo(int status, String contentType, long contentLength) {}
@@ -0,0 +1,18 @@
+package org.cheban.swisstoolbot.objects;
+
+public enum Units {
+  METRIC {
+    @Override
+    public double temperature(double celsius) {
+      return celsius;
+    }
+  },
+  IMPERIAL {
+    @Override
+    public double temperature(double celsius) {
+      return celsius * 9 / 5 + 32;
+    }
+  };
+
+  public abstract double temperature(double celsius);
+}
@@ -1,7 +1,18 @@
 package org.cheban.swisstoolbot.service;
 
+import org.cheban.swisstoolbot.objects.Forecast;
+
 import java.util.Optional;
+import java.util.function.IntConsumer;
 
 public interface WeatherService {
-  Optional<String> forecastMsg(String name, Double lat, Double lon);
+  Optional<Forecast> forecast(double lat, double lon);
+
+  /**
+   * Same as {@link #forecast(double, double)}, also reports how many upstream calls it took.
+   */
+  default Optional<Forecast> forecast(double lat, double lon, IntConsumer upstreamCalls) {
+    upstreamCalls.accept(1);
+    return forecast(lat, lon);
+  }
 }
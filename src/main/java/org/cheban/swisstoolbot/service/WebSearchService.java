@@ -3,10 +3,21 @@ package org.cheban.swisstoolbot.service;
 import org.cheban.swisstoolbot.objects.ImageResult;
 import org.cheban.swisstoolbot.objects.WebResult;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface WebSearchService {
-  List<WebResult> search(String query, int num);
+  default List<WebResult> search(String query, int num) {
+    List<WebResult> results = new ArrayList<>(num);
+    search(query, num, results::add);
+    return results;
+  }
+
+  /**
+   * Streams up to {@code num} results to {@code consumer} as soon as each of them is parsed.
+   */
+  void search(String query, int num, Consumer<WebResult> consumer);
 
   List<ImageResult> searchImages(String query, int num);
 }
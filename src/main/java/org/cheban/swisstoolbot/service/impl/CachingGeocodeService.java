@@ -0,0 +1,242 @@
+package org.cheban.swisstoolbot.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.cheban.swisstoolbot.objects.LocationInfo;
+import org.cheban.swisstoolbot.service.GeocodeService;
+import org.cheban.swisstoolbot.util.JsonUtil;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps resolved places in two indexes: normalized query to location, and a lat/lon grid for reverse lookups.
+ * A reverse lookup within {@code reverseRadiusMeters} of an already known point is answered without a network call.
+ * Both indexes are bounded by {@code maxEntries} and persisted to a JSON file.
+ */
+@Slf4j
+public class CachingGeocodeService implements GeocodeService {
+  private static final double METERS_PER_DEGREE = 111_320;
+  private static final double EARTH_RADIUS_METERS = 6_371_000;
+
+  private final GeocodeService delegate;
+  private final Path file;
+  private final long ttlMillis;
+  private final double radiusMeters;
+  private final double cellDegrees;
+  private final Cache<String, Entry> forward;
+  // cells are immutable lists, replaced on every change so their weight stays right
+  private final Cache<Long, List<Entry>> grid;
+  private final AtomicBoolean dirty = new AtomicBoolean();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public CachingGeocodeService(GeocodeService delegate, BotProperties.GeocodeCache properties) {
+    this.delegate = delegate;
+    this.file = properties.getFile();
+    this.ttlMillis = properties.getTtl().toMillis();
+    this.radiusMeters = properties.getReverseRadiusMeters();
+    this.cellDegrees = radiusMeters / METERS_PER_DEGREE;
+    this.forward = Caffeine.newBuilder()
+            .maximumSize(properties.getMaxEntries())
+            .build();
+    this.grid = Caffeine.newBuilder()
+            .maximumWeight(properties.getMaxEntries())
+            .<Long, List<Entry>>weigher((cell, entries) -> entries.size())
+            .build();
+    load();
+  }
+
+  @Override
+  public LocationInfo coordinates(String query) {
+    String key = normalize(query);
+    Entry cached = forward.getIfPresent(key);
+    if (cached != null && !cached.isExpired(System.currentTimeMillis())) {
+      hits.increment();
+      return new LocationInfo(cached.lat(), cached.lon(), cached.label());
+    }
+
+    misses.increment();
+    LocationInfo location = delegate.coordinates(query);
+    if (location != null && location.lat() != null && location.lon() != null) {
+      Entry entry = new Entry(location.lat(), location.lon(), location.name(), expiresAt());
+      forward.put(key, entry);
+      index(entry);
+      dirty.set(true);
+    }
+    return location;
+  }
+
+  @Override
+  public String location(Double lat, Double lng) {
+    if (lat == null || lng == null) {
+      return delegate.location(lat, lng);
+    }
+
+    Entry nearest = nearest(lat, lng);
+    if (nearest != null) {
+      hits.increment();
+      return nearest.label();
+    }
+
+    misses.increment();
+    String label = delegate.location(lat, lng);
+    if (label != null) {
+      index(new Entry(lat, lng, label, expiresAt()));
+      dirty.set(true);
+    }
+    return label;
+  }
+
+  public long hits() {
+    return hits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  @Scheduled(fixedDelayString = "${bot.geocode-cache.flush-interval:PT1M}")
+  public void flush() {
+    long now = System.currentTimeMillis();
+    forward.asMap().values().removeIf(e -> e.isExpired(now));
+    grid.asMap().keySet().forEach(key -> grid.asMap().computeIfPresent(key, (k, cell) -> {
+      List<Entry> live = cell.stream().filter(e -> !e.isExpired(now)).toList();
+      return live.isEmpty() ? null : live;
+    }));
+
+    if (file == null || !dirty.getAndSet(false)) {
+      return;
+    }
+
+    List<Entry> reverse = grid.asMap().values().stream().flatMap(List::stream).toList();
+    Snapshot snapshot = new Snapshot(Map.copyOf(forward.asMap()), reverse);
+    try {
+      Path parent = file.toAbsolutePath().getParent();
+      Files.createDirectories(parent);
+      Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+      try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        JsonUtil.writeObject(w, snapshot);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      log.info("[flush] Saved {} forward and {} reverse geocode entries", snapshot.forward().size(), reverse.size());
+    } catch (IOException | IllegalArgumentException e) {
+      dirty.set(true);
+      log.error("[flush] Could not save geocode cache to {}", file, e);
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    flush();
+  }
+
+  private void load() {
+    if (file == null || !Files.exists(file)) {
+      return;
+    }
+
+    try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      Snapshot snapshot = JsonUtil.parseObject(r, Snapshot.class);
+      long now = System.currentTimeMillis();
+      if (snapshot.forward() != null) {
+        snapshot.forward().forEach((query, entry) -> {
+          if (!entry.isExpired(now)) {
+            forward.put(query, entry);
+          }
+        });
+      }
+      // forward entries are indexed in the grid as well, so the reverse list covers them
+      if (snapshot.reverse() != null) {
+        snapshot.reverse().stream().filter(e -> !e.isExpired(now)).forEach(this::index);
+      }
+      log.info("[load] Loaded {} forward geocode entries from {}", forward.estimatedSize(), file);
+    } catch (IOException | IllegalArgumentException e) {
+      log.error("[load] Could not read geocode cache from {}", file, e);
+    }
+  }
+
+  private void index(Entry entry) {
+    grid.asMap().merge(cellKey(cell(entry.lat()), cell(entry.lon())), List.of(entry), (cell, added) -> {
+      List<Entry> entries = new ArrayList<>(cell.size() + 1);
+      entries.addAll(cell);
+      entries.addAll(added);
+      return List.copyOf(entries);
+    });
+  }
+
+  private Entry nearest(double lat, double lon) {
+    long now = System.currentTimeMillis();
+    long latCell = cell(lat);
+    long lonCell = cell(lon);
+    // longitude cells get narrower towards the poles, so more of them are needed to cover the radius
+    int lonSpan = (int) Math.ceil(1 / Math.max(Math.cos(Math.toRadians(lat)), 0.01));
+
+    Entry nearest = null;
+    double nearestDistance = radiusMeters;
+    for (long i = latCell - 1; i <= latCell + 1; i++) {
+      for (long j = lonCell - lonSpan; j <= lonCell + lonSpan; j++) {
+        List<Entry> entries = grid.getIfPresent(cellKey(i, j));
+        if (entries == null) {
+          continue;
+        }
+        for (Entry entry : entries) {
+          double distance = distance(lat, lon, entry.lat(), entry.lon());
+          if (distance <= nearestDistance && !entry.isExpired(now)) {
+            nearest = entry;
+            nearestDistance = distance;
+          }
+        }
+      }
+    }
+    return nearest;
+  }
+
+  private long cell(double degrees) {
+    return (long) Math.floor(degrees / cellDegrees);
+  }
+
+  private static long cellKey(long latCell, long lonCell) {
+    return (latCell << 32) ^ (lonCell & 0xFFFFFFFFL);
+  }
+
+  private static double distance(double lat1, double lon1, double lat2, double lon2) {
+    double dLat = Math.toRadians(lat2 - lat1);
+    double dLon = Math.toRadians(lon2 - lon1);
+    double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+            Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+    return 2 * EARTH_RADIUS_METERS * Math.asin(Math.sqrt(a));
+  }
+
+  private long expiresAt() {
+    return System.currentTimeMillis() + ttlMillis;
+  }
+
+  private static String normalize(String query) {
+    return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+  }
+
+  private record Entry(double lat, double lon, String label, long expiresAt) {
+    boolean isExpired(long now) {
+      return expiresAt < now;
+    }
+  }
+
+  private record Snapshot(Map<String, Entry> forward, List<Entry> reverse) {
+  }
+}
@@ -0,0 +1,112 @@
+package org.cheban.swisstoolbot.service.impl;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.cheban.swisstoolbot.objects.Forecast;
+import org.cheban.swisstoolbot.service.WeatherService;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+
+/**
+ * Caches forecasts per geo-cell, i.e. coordinates rounded to {@code precision} decimal places.
+ * Concurrent requests for the same cell share a single upstream call, which runs on a virtual thread outside the
+ * cache's locks. Forecasts are cached rather than messages, so chats with different names, units or templates for
+ * the same place share an entry.
+ */
+@Slf4j
+public class CachingWeatherService implements WeatherService, DisposableBean {
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final WeatherService delegate;
+  private final double scale;
+  private final AsyncCache<Cell, Forecast> cache;
+  private final Cache<Cell, Long> lastUsed;
+
+  public CachingWeatherService(WeatherService delegate, BotProperties.WeatherCache properties) {
+    this.delegate = delegate;
+    this.scale = Math.pow(10, properties.getPrecision());
+    this.cache = Caffeine.newBuilder()
+            .maximumSize(properties.getMaxSize())
+            .expireAfterWrite(properties.getTtl())
+            .recordStats()
+            .executor(executor)
+            .buildAsync();
+    this.lastUsed = Caffeine.newBuilder()
+            .maximumSize(properties.getMaxSize())
+            .build();
+  }
+
+  @Override
+  public Optional<Forecast> forecast(double lat, double lon) {
+    Cell cell = cell(lat, lon);
+    lastUsed.put(cell, System.currentTimeMillis());
+    try {
+      return Optional.ofNullable(cache.get(cell, this::load).join());
+    } catch (CompletionException e) {
+      log.error("[forecast] Could not load cell {},{}", cell.lat(), cell.lon(), e.getCause());
+      return Optional.empty();
+    }
+  }
+
+  public Cell cell(double lat, double lon) {
+    return new Cell(Math.round(lat * scale), Math.round(lon * scale));
+  }
+
+  /**
+   * Returns when a forecast for {@code cell} was last asked for, 0 if it wasn't since startup.
+   */
+  public long lastUsed(Cell cell) {
+    Long millis = lastUsed.getIfPresent(cell);
+    return millis != null ? millis : 0;
+  }
+
+  public boolean isFresh(Cell cell, Duration maxAge) {
+    return cache.synchronous().policy().expireAfterWrite()
+            .flatMap(expiration -> expiration.ageOf(cell))
+            .map(age -> age.compareTo(maxAge) < 0)
+            .orElse(false);
+  }
+
+  /**
+   * Loads the forecast for {@code cell} and replaces the cached one, a failed load keeps the old entry.
+   * {@code upstreamCalls} gets the number of calls the load took.
+   */
+  public boolean refresh(Cell cell, IntConsumer upstreamCalls) {
+    Forecast forecast = delegate.forecast(cell.lat() / scale, cell.lon() / scale, upstreamCalls).orElse(null);
+    if (forecast == null) {
+      return false;
+    }
+    cache.put(cell, CompletableFuture.completedFuture(forecast));
+    return true;
+  }
+
+  public CacheStats stats() {
+    return cache.synchronous().stats();
+  }
+
+  private Forecast load(Cell cell) {
+    log.info("[forecast] Cache miss for cell {},{}", cell.lat(), cell.lon());
+    return delegate.forecast(cell.lat() / scale, cell.lon() / scale).orElse(null);
+  }
+
+  @Override
+  public void destroy() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Coordinates multiplied by {@code 10^precision} and rounded.
+   */
+  public record Cell(long lat, long lon) {
+  }
+}
@@ -0,0 +1,270 @@
+package org.cheban.swisstoolbot.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.cheban.swisstoolbot.objects.ImageResult;
+import org.cheban.swisstoolbot.objects.WebResult;
+import org.cheban.swisstoolbot.service.WebSearchService;
+import org.cheban.swisstoolbot.util.JsonUtil;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Caches search results per normalized query together with the {@code num} they were fetched for, so a cached
+ * answer also serves any smaller {@code num}. Entries older than {@code fresh} are still served, and refreshed in
+ * the background; entries older than {@code ttl} are dropped. The hottest entries can be kept in a JSON file.
+ */
+@Slf4j
+public class CachingWebSearchService implements WebSearchService {
+  private final WebSearchService delegate;
+  private final Path file;
+  private final int diskEntries;
+  private final long freshMillis;
+  private final long ttlMillis;
+  private final ExecutorService refresher = Executors.newVirtualThreadPerTaskExecutor();
+  private final Tier<WebResult> web;
+  private final Tier<ImageResult> images;
+  private final AtomicBoolean dirty = new AtomicBoolean();
+
+  public CachingWebSearchService(WebSearchService delegate, BotProperties.SearchCache properties) {
+    this.delegate = delegate;
+    this.file = properties.getFile();
+    this.diskEntries = properties.getDiskEntries();
+    this.freshMillis = properties.getFresh().toMillis();
+    this.ttlMillis = properties.getTtl().toMillis();
+    this.web = new Tier<>("search", properties.getMaxResults(), (query, num) -> delegate.search(query, num));
+    this.images = new Tier<>("images", properties.getMaxResults(), delegate::searchImages);
+    load();
+  }
+
+  @Override
+  public void search(String query, int num, Consumer<WebResult> consumer) {
+    String key = normalize(query);
+    List<WebResult> cached = web.lookup(key, num);
+    if (cached != null) {
+      cached.forEach(consumer);
+      return;
+    }
+
+    // results still go out one by one as they are parsed, the cache gets them once the search is over
+    List<WebResult> results = new ArrayList<>(num);
+    delegate.search(query, num, r -> {
+      results.add(r);
+      consumer.accept(r);
+    });
+    web.store(key, num, results);
+  }
+
+  @Override
+  public List<ImageResult> searchImages(String query, int num) {
+    String key = normalize(query);
+    List<ImageResult> cached = images.lookup(key, num);
+    if (cached != null) {
+      return cached;
+    }
+
+    List<ImageResult> results = delegate.searchImages(query, num);
+    images.store(key, num, results);
+    return results;
+  }
+
+  public long searchHits() {
+    return web.hits.sum();
+  }
+
+  public long searchStaleHits() {
+    return web.staleHits.sum();
+  }
+
+  public long searchMisses() {
+    return web.misses.sum();
+  }
+
+  public long imageHits() {
+    return images.hits.sum();
+  }
+
+  public long imageStaleHits() {
+    return images.staleHits.sum();
+  }
+
+  public long imageMisses() {
+    return images.misses.sum();
+  }
+
+  @Scheduled(fixedDelayString = "${bot.search-cache.flush-interval:PT5M}")
+  public void flush() {
+    if (file == null || !dirty.getAndSet(false)) {
+      return;
+    }
+
+    Snapshot snapshot = new Snapshot(web.hottest(diskEntries), images.hottest(diskEntries));
+    try {
+      Path parent = file.toAbsolutePath().getParent();
+      Files.createDirectories(parent);
+      Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+      try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        JsonUtil.writeObject(w, snapshot);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      log.info("[flush] Saved {} web and {} image searches", snapshot.web().size(), snapshot.images().size());
+    } catch (IOException | IllegalArgumentException e) {
+      dirty.set(true);
+      log.error("[flush] Could not save search cache to {}", file, e);
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    refresher.shutdownNow();
+    flush();
+  }
+
+  private void load() {
+    if (file == null || !Files.exists(file)) {
+      return;
+    }
+
+    try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      Snapshot snapshot = JsonUtil.parseObject(r, Snapshot.class);
+      web.restore(snapshot.web());
+      images.restore(snapshot.images());
+      log.info("[load] Loaded {} web and {} image searches from {}", web.cache.estimatedSize(),
+              images.cache.estimatedSize(), file);
+    } catch (IOException | IllegalArgumentException e) {
+      log.error("[load] Could not read search cache from {}", file, e);
+    }
+  }
+
+  private static String normalize(String query) {
+    return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+  }
+
+  private final class Tier<T> {
+    private final String name;
+    private final BiFunction<String, Integer, List<T>> fetch;
+    private final Cache<String, Entry<T>> cache;
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private Tier(String name, long maxResults, BiFunction<String, Integer, List<T>> fetch) {
+      this.name = name;
+      this.fetch = fetch;
+      this.cache = Caffeine.newBuilder()
+              .maximumWeight(maxResults)
+              .weigher((String query, Entry<T> entry) -> entry.results().size() + 1)
+              .expireAfterWrite(Duration.ofMillis(ttlMillis))
+              .build();
+    }
+
+    /**
+     * Returns up to {@code num} cached results, or {@code null} if there is no entry fetched for at least {@code num}.
+     */
+    private List<T> lookup(String query, int num) {
+      Entry<T> entry = cache.getIfPresent(query);
+      if (entry == null || entry.num() < num) {
+        misses.increment();
+        return null;
+      }
+
+      if (entry.isStale(System.currentTimeMillis(), freshMillis)) {
+        staleHits.increment();
+        refresh(query, entry.num());
+      } else {
+        hits.increment();
+      }
+      List<T> results = entry.results();
+      return results.size() > num ? results.subList(0, num) : results;
+    }
+
+    private void store(String query, int num, List<T> results) {
+      // an empty answer is as likely a failed search as a real one
+      if (results.isEmpty()) {
+        return;
+      }
+      long now = System.currentTimeMillis();
+      // fewer results than asked for may be a read cut short, so the entry only answers for as many as it holds
+      int answers = Math.min(num, results.size());
+      // a fresh entry fetched for more results is worth more than a new one for fewer
+      cache.asMap().merge(query, new Entry<>(List.copyOf(results), answers, now),
+              (old, fresh) -> old.num() > fresh.num() && !old.isStale(now, freshMillis) ? old : fresh);
+      dirty.set(true);
+    }
+
+    private void refresh(String query, int num) {
+      if (!refreshing.add(query)) {
+        return;
+      }
+      refresher.execute(() -> {
+        try {
+          log.info("[refresh] Revalidating {} '{}'", name, query);
+          store(query, num, fetch.apply(query, num));
+        } catch (RuntimeException e) {
+          log.error("[refresh] Could not revalidate {} '{}'", name, query, e);
+        } finally {
+          refreshing.remove(query);
+        }
+      });
+    }
+
+    private Map<String, Entry<T>> hottest(int limit) {
+      Map<String, Entry<T>> hottest = new LinkedHashMap<>();
+      cache.policy().eviction()
+              .map(eviction -> eviction.hottest(limit))
+              .orElseGet(cache::asMap)
+              .forEach((query, entry) -> {
+                if (hottest.size() < limit) {
+                  hottest.put(query, entry);
+                }
+              });
+      return hottest;
+    }
+
+    private void restore(Map<String, Entry<T>> entries) {
+      if (entries == null) {
+        return;
+      }
+      long now = System.currentTimeMillis();
+      entries.forEach((query, entry) -> {
+        if (now - entry.createdAt() < ttlMillis && entry.results() != null && !entry.results().isEmpty()) {
+          cache.put(query, entry);
+        }
+      });
+    }
+  }
+
+  private record Entry<T>(List<T> results, int num, long createdAt) {
+    boolean isStale(long now, long freshMillis) {
+      return now - createdAt > freshMillis;
+    }
+  }
+
+  private record Snapshot(Map<String, Entry<WebResult>> web, Map<String, Entry<ImageResult>> images) {
+  }
+}
@@ -0,0 +1,161 @@
+package org.cheban.swisstoolbot.service.impl;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.cheban.swisstoolbot.objects.DownloadInfo;
+import org.cheban.swisstoolbot.util.DownloadException;
+import org.cheban.swisstoolbot.util.HttpUtil;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads documents for /doc into temp files, so the bot uploads them itself instead of asking Telegram to fetch
+ * the URL. Transfers are capped in size and content type, and only {@code maxConcurrent} of them run at once.
+ */
+@Slf4j
+@Component
+public class DocumentFetcher {
+  private static final Pattern FILENAME = Pattern.compile("(filename\\*?)\\s*=\\s*(?:[\\w-]+'[^']*')?\"?([^\";]+)\"?",
+          Pattern.CASE_INSENSITIVE);
+  private static final String DEFAULT_FILE_NAME = "document";
+
+  private final BotProperties.Documents properties;
+  private final List<String> allowedTypes;
+  private final Semaphore transfers;
+  private final MeterRegistry meterRegistry;
+  private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+  private final DistributionSummary bytes;
+  private final DistributionSummary throughput;
+
+  public DocumentFetcher(BotProperties botProperties, MeterRegistry meterRegistry) {
+    this.properties = botProperties.getDocuments();
+    this.allowedTypes = properties.getAllowedTypes().stream().map(t -> t.toLowerCase(Locale.ROOT)).toList();
+    this.transfers = new Semaphore(properties.getMaxConcurrent(), true);
+    this.meterRegistry = meterRegistry;
+    this.bytes = DistributionSummary.builder("bot.document.bytes")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    this.throughput = DistributionSummary.builder("bot.document.throughput")
+            .baseUnit("bytes_per_second")
+            .register(meterRegistry);
+    Gauge.builder("bot.document.transfers", transfers, s -> properties.getMaxConcurrent() - s.availablePermits())
+            .register(meterRegistry);
+  }
+
+  public boolean isEnabled() {
+    return properties.getMode() == BotProperties.Documents.Mode.FETCH;
+  }
+
+  /**
+   * Downloads {@code url} into a temp file the caller deletes once the document is sent.
+   * Refused downloads fail with {@link DownloadException}, its message can be shown to the user.
+   */
+  public Document fetch(String url) throws IOException, InterruptedException {
+    if (!transfers.tryAcquire(properties.getMaxWait().toNanos(), TimeUnit.NANOSECONDS)) {
+      timer("busy").record(0, TimeUnit.NANOSECONDS);
+      throw new DownloadException(DownloadException.Reason.BUSY,
+              "Too many documents are being fetched, try again later");
+    }
+
+    long start = System.nanoTime();
+    String outcome = "error";
+    Path file = null;
+    try {
+      file = properties.getTempDir() != null ?
+              Files.createTempFile(Files.createDirectories(properties.getTempDir()), "doc-", ".tmp") :
+              Files.createTempFile("doc-", ".tmp");
+      DownloadInfo info = HttpUtil.download(url, file, properties.getMaxBytes(), this::isAllowed,
+              properties.getTransferTimeout());
+      long elapsed = System.nanoTime() - start;
+      bytes.record(info.size());
+      throughput.record(info.size() * 1e9 / Math.max(elapsed, 1));
+      log.info("[fetch] {} bytes of {} in {} ms", info.size(), info.contentType(),
+              TimeUnit.NANOSECONDS.toMillis(elapsed));
+      outcome = "ok";
+      return new Document(file, fileName(url, info.contentDisposition()), info.contentType(), info.size());
+    } catch (DownloadException e) {
+      outcome = e.reason().name().toLowerCase(Locale.ROOT);
+      throw e;
+    } finally {
+      timer(outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      transfers.release();
+      if (!"ok".equals(outcome) && file != null) {
+        delete(file);
+      }
+    }
+  }
+
+  public static void delete(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      log.warn("[delete] Could not delete {}: {}", file, e.getMessage());
+    }
+  }
+
+  private boolean isAllowed(String contentType) {
+    String type = contentType != null ? contentType : "application/octet-stream";
+    for (String allowed : allowedTypes) {
+      if (allowed.endsWith("*") ? type.startsWith(allowed.substring(0, allowed.length() - 1)) : type.equals(allowed)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The name from {@code Content-Disposition}, otherwise the last segment of the URL path.
+   */
+  private static String fileName(String url, String contentDisposition) {
+    String name = null;
+    if (contentDisposition != null) {
+      Matcher m = FILENAME.matcher(contentDisposition);
+      // filename* comes with the proper encoding, so it wins over a plain filename
+      while (m.find()) {
+        if (m.group(1).endsWith("*")) {
+          name = URLDecoder.decode(m.group(2).trim().replace("+", "%2B"), StandardCharsets.UTF_8);
+        } else if (name == null) {
+          name = m.group(2).trim();
+        }
+      }
+    }
+    if (name == null) {
+      try {
+        String path = URI.create(url).getPath();
+        name = path != null ? path.substring(path.lastIndexOf('/') + 1) : null;
+      } catch (IllegalArgumentException e) {
+        name = null;
+      }
+    }
+    name = name != null ? name.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").strip() : "";
+    return name.isEmpty() ? DEFAULT_FILE_NAME : name;
+  }
+
+  private Timer timer(String outcome) {
+    return timers.computeIfAbsent(outcome, o -> Timer.builder("bot.document.transfer")
+            .tag("outcome", o)
+            .publishPercentileHistogram()
+            .register(meterRegistry));
+  }
+
+  public record Document(Path file, String fileName, String contentType, long size) {
+  }
+}
@@ -2,90 +2,111 @@ package org.cheban.swisstoolbot.service.impl;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.Data;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
 import org.cheban.swisstoolbot.objects.ImageResult;
 import org.cheban.swisstoolbot.objects.WebResult;
 import org.cheban.swisstoolbot.service.WebSearchService;
 import org.cheban.swisstoolbot.util.HttpUtil;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
+import org.cheban.swisstoolbot.util.ReaderUtil;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.StreamParser;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Duration;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ForkJoinPool;
-import java.util.regex.Matcher;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 @Slf4j
 @Service
-public class DuckDuckGoWebSearchService implements WebSearchService {
-  private static final int PARALLEL_POOL = 8;
+@RequiredArgsConstructor
+public class DuckDuckGoWebSearchService implements WebSearchService, DisposableBean {
   private static final String SEARCH_URL = "https://duckduckgo.com/?q=%s";
   private static final String SEARCH_HTML_URL = "https://html.duckduckgo.com/html/?q=%s";
   private static final String IMAGE_SEARCH_URL = "https://duckduckgo.com/i.js?q=%s&vqd=%s";
   private static final Pattern VQD_PATTERN = Pattern.compile("vqd=([0-9-]+)&");
+  private static final int VQD_MAX_LENGTH = 128;
+  private static final Duration VQD_TTL = Duration.ofMinutes(30);
+  private static final long VQD_CACHE_SIZE = 10_000;
+  // what i.js answers for an expired or foreign vqd token
+  private static final int VQD_REJECTED = 403;
   private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/130.0.0.0 Safari/537.36";
+  private static final String RESULT_LINK_SELECTOR = "#links .result .result__body .result__title .result__a";
+  public static final Map<String, String> SEARCH_HTML_HEADERS = Map.of("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/88.0.4324.182 Safari/537.36", "Accept", "text/html,application/xhtml+xml;q=0.9,*/*;q=0.8");
   public static final Map<String, String> SEARCH_HEADERS = Map.of("User-Agent", USER_AGENT, "Accept", "image/jpeg,image/png;q=0.9,*/*;q=0.8");
   public static final Map<String, String> SEARCH_IMAGES_HEADERS = Map.of("User-Agent", USER_AGENT, "Referer", "https://duckduckgo.com/", "Accept-Language", "en-US,en;q=0.9", "Accept", "application/json;q=0.9,*/*;q=0.8");
 
-  public List<WebResult> search(String query, int num) {
-    List<WebResult> results = List.of();
-
+  private final ImageValidator imageValidator;
+  // tokens are fetched on a virtual thread, not inside the cache's compute
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final AsyncCache<String, String> vqdTokens = Caffeine.newBuilder()
+          .maximumSize(VQD_CACHE_SIZE)
+          .expireAfterWrite(VQD_TTL)
+          .executor(executor)
+          .buildAsync();
+
+  @Override
+  public void search(String query, int num, Consumer<WebResult> consumer) {
     try {
       String searchUrl = String.format(SEARCH_HTML_URL, HttpUtil.urlEncode(query));
       log.info("[search] {}", searchUrl);
-      Document doc = Jsoup.connect(searchUrl).userAgent("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/88.0.4324.182 Safari/537.36").get();
-      results = doc.select("#links .result .result__body .result__title .result__a").stream()
-              .limit(num)
-              .map(link -> new WebResult(link.absUrl("href"), link.text())).toList();
-
+      HttpUtil.getContent(searchUrl, SEARCH_HTML_HEADERS, r -> parseResults(r, searchUrl, num, consumer));
     } catch (Exception e) {
-      log.error("Exception during Google search", e);
+      log.error("Exception during DDG search", e);
     }
-
-    return results;
   }
 
-  public List<ImageResult> searchImages(String query, int num) {
-    try (ForkJoinPool fjp = new ForkJoinPool(PARALLEL_POOL)) {
-      return fjp.submit(() -> searchImagesInternal(query, num)).get();
-    } catch (InterruptedException | ExecutionException e) {
-      Thread.currentThread().interrupt();
-      throw new IllegalStateException(e);
+  static int parseResults(Reader reader, String baseUri, int num, Consumer<WebResult> consumer) {
+    try (StreamParser parser = new StreamParser(Parser.htmlParser()).parse(reader, baseUri)) {
+      int count = 0;
+      Element link;
+      while (count < num && (link = parser.selectNext(RESULT_LINK_SELECTOR)) != null) {
+        consumer.accept(new WebResult(link.absUrl("href"), link.text()));
+        count++;
+      }
+      return count;
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
     }
   }
 
-  private static List<ImageResult> searchImagesInternal(String query, int num) {
+  @Override
+  public List<ImageResult> searchImages(String query, int num) {
     List<ImageResult> results = List.of();
 
     try {
-      String searchUrl = String.format(SEARCH_URL, HttpUtil.urlEncode(query));
-      String responseBody = HttpUtil.getText(searchUrl, SEARCH_HEADERS);
-      if (StringUtils.isBlank(responseBody)) {
-        throw new IllegalStateException("Failed to get response from DDG");
+      String normalized = normalize(query);
+      CompletableFuture<String> cached = vqdTokens.getIfPresent(normalized);
+      boolean cachedToken = cached != null && cached.isDone();
+      AtomicInteger status = new AtomicInteger();
+      DDGImageResults response = loadImages(normalized, vqdToken(normalized), status);
+      // only a rejected token is worth a new one, other failures would fail again the same way
+      if (response == null && cachedToken && status.get() == VQD_REJECTED) {
+        log.info("[searchImages] vqd token for '{}' was rejected, refreshing", normalized);
+        vqdTokens.synchronous().invalidate(normalized);
+        response = loadImages(normalized, vqdToken(normalized), status);
       }
 
-      Matcher vqdMatcher = VQD_PATTERN.matcher(responseBody);
-      if (!vqdMatcher.find()) {
-        throw new IllegalStateException("Unable to parse vqd");
-      }
-
-      String vqd = vqdMatcher.group(1);
-      DDGImageResults response =
-              HttpUtil.loadJson(String.format(IMAGE_SEARCH_URL, HttpUtil.urlEncode(query), HttpUtil.urlEncode(vqd)),
-                      SEARCH_IMAGES_HEADERS,
-                      DDGImageResults.class);
       if (response != null && response.getResults() != null) {
-        results = response.getResults().parallelStream()
+        List<ImageResult> candidates = response.getResults().stream()
                 .limit(num * 2L)
                 .map(r -> new ImageResult(r.getSrc(), r.getUrl(), r.getTitle()))
-                .filter(im -> HttpUtil.imgExistsForTg(im.src()))
-                .limit(num)
                 .toList();
+        results = imageValidator.validate(candidates, num);
       }
 
       log.info("[searchImages] build results");
@@ -96,6 +117,35 @@ public class DuckDuckGoWebSearchService implements WebSearchService {
     return results;
   }
 
+  private String vqdToken(String query) {
+    String vqd = vqdTokens.get(query, DuckDuckGoWebSearchService::fetchVqdToken).join();
+    if (vqd == null) {
+      throw new IllegalStateException("Unable to parse vqd");
+    }
+    return vqd;
+  }
+
+  private static String fetchVqdToken(String query) {
+    String searchUrl = String.format(SEARCH_URL, HttpUtil.urlEncode(query));
+    return HttpUtil.getContent(searchUrl, SEARCH_HEADERS, r -> ReaderUtil.findFirst(r, VQD_PATTERN, 1, VQD_MAX_LENGTH));
+  }
+
+  private static DDGImageResults loadImages(String query, String vqd, AtomicInteger status) {
+    return HttpUtil.loadJson(String.format(IMAGE_SEARCH_URL, HttpUtil.urlEncode(query), HttpUtil.urlEncode(vqd)),
+            SEARCH_IMAGES_HEADERS,
+            DDGImageResults.class,
+            status::set);
+  }
+
+  private static String normalize(String query) {
+    return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+  }
+
+  @Override
+  public void destroy() {
+    executor.shutdownNow();
+  }
+
   @JsonIgnoreProperties(ignoreUnknown = true)
   @Data
   private static class DDGImageResults {
@@ -0,0 +1,167 @@
+package org.cheban.swisstoolbot.service.impl;
+
+import org.cheban.swisstoolbot.objects.Forecast;
+import org.cheban.swisstoolbot.objects.Units;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.format.TextStyle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Renders a {@link Forecast} with templates compiled once into literal and field segments.
+ * Rendering appends straight into a {@link StringBuilder}: temperatures are rounded to longs,
+ * day and month names come from tables built for the locale up front.
+ */
+public final class ForecastRenderer {
+  private static final int NAME = 0;
+  private static final int ICON = 1;
+  private static final int TEMP = 2;
+  private static final int FEELS = 3;
+  private static final int WEEKDAY = 4;
+  private static final int DAY = 5;
+  private static final int MONTH = 6;
+  private static final int MAX = 7;
+  private static final int MIN = 8;
+  private static final int FEELS_MAX = 9;
+  private static final int FEELS_MIN = 10;
+
+  private static final Map<String, Integer> HEADER_FIELDS = Map.of("name", NAME, "icon", ICON, "temp", TEMP,
+          "feels", FEELS);
+  private static final Map<String, Integer> DAY_FIELDS = Map.of("weekday", WEEKDAY, "day", DAY, "month", MONTH,
+          "icon", ICON, "max", MAX, "min", MIN, "feels_max", FEELS_MAX, "feels_min", FEELS_MIN);
+
+  private final Template header;
+  private final Template day;
+  private final Units units;
+  private final String[] weekdays = new String[7];
+  private final String[] months = new String[12];
+  // sizes the next builder, so a typical message is rendered without growing it
+  private volatile int lastLength = 256;
+
+  public ForecastRenderer(String header, String day, Units units, Locale locale) {
+    this.header = Template.compile(header, HEADER_FIELDS);
+    this.day = Template.compile(day, DAY_FIELDS);
+    this.units = units;
+    for (DayOfWeek dayOfWeek : DayOfWeek.values()) {
+      weekdays[dayOfWeek.ordinal()] = dayOfWeek.getDisplayName(TextStyle.SHORT, locale);
+    }
+    for (Month month : Month.values()) {
+      months[month.ordinal()] = month.getDisplayName(TextStyle.SHORT, locale);
+    }
+  }
+
+  public String render(String name, Forecast forecast) {
+    StringBuilder sb = new StringBuilder(lastLength + 16);
+    renderTo(sb, name, forecast);
+    lastLength = sb.length();
+    return sb.toString();
+  }
+
+  /**
+   * Appends the message to {@code sb}, callers that render in a loop can reuse one builder.
+   */
+  public void renderTo(StringBuilder sb, String name, Forecast forecast) {
+    Forecast.Current current = forecast.current();
+    String[] literals = header.literals;
+    int[] fields = header.fields;
+    for (int i = 0; i < fields.length; i++) {
+      sb.append(literals[i]);
+      switch (fields[i]) {
+        case NAME -> sb.append(name);
+        case ICON -> sb.append(current.icon());
+        case TEMP -> appendTemperature(sb, current.temperature());
+        case FEELS -> appendTemperature(sb, current.feelsLike());
+        default -> throw new IllegalStateException("Unexpected header field: " + fields[i]);
+      }
+    }
+    sb.append(literals[fields.length]);
+
+    List<Forecast.Day> days = forecast.days();
+    for (int d = 0; d < days.size(); d++) {
+      if (d > 0) {
+        sb.append('\n');
+      }
+      appendDay(sb, days.get(d));
+    }
+  }
+
+  private void appendDay(StringBuilder sb, Forecast.Day forecastDay) {
+    String[] literals = day.literals;
+    int[] fields = day.fields;
+    LocalDate date = forecastDay.date();
+    for (int i = 0; i < fields.length; i++) {
+      sb.append(literals[i]);
+      switch (fields[i]) {
+        case WEEKDAY -> sb.append(weekdays[date.getDayOfWeek().ordinal()]);
+        case DAY -> sb.append(date.getDayOfMonth());
+        case MONTH -> sb.append(months[date.getMonthValue() - 1]);
+        case ICON -> sb.append(forecastDay.icon());
+        case MAX -> appendTemperature(sb, forecastDay.max());
+        case MIN -> appendTemperature(sb, forecastDay.min());
+        case FEELS_MAX -> appendTemperature(sb, forecastDay.feelsLikeMax());
+        case FEELS_MIN -> appendTemperature(sb, forecastDay.feelsLikeMin());
+        default -> throw new IllegalStateException("Unexpected day field: " + fields[i]);
+      }
+    }
+    sb.append(literals[fields.length]);
+  }
+
+  /**
+   * Rounds half away from zero like {@code %.0f}, but never prints {@code -0}.
+   */
+  private void appendTemperature(StringBuilder sb, double celsius) {
+    if (Double.isNaN(celsius)) {
+      sb.append('?');
+      return;
+    }
+    double value = units.temperature(celsius);
+    long rounded = Math.round(Math.abs(value));
+    if (value < 0 && rounded != 0) {
+      sb.append('-');
+    }
+    sb.append(rounded);
+  }
+
+  /**
+   * {@code literals[i]} precedes {@code fields[i]}, the last literal follows the last field.
+   */
+  private record Template(String[] literals, int[] fields) {
+    static Template compile(String template, Map<String, Integer> known) {
+      List<String> literals = new ArrayList<>();
+      List<Integer> fields = new ArrayList<>();
+      StringBuilder literal = new StringBuilder();
+      int i = 0;
+      while (i < template.length()) {
+        char c = template.charAt(i);
+        if (c != '{') {
+          literal.append(c);
+          i++;
+        } else if (template.startsWith("{{}", i)) {
+          literal.append('{');
+          i += 3;
+        } else {
+          int end = template.indexOf('}', i);
+          if (end < 0) {
+            throw new IllegalArgumentException("Unclosed placeholder in template: " + template);
+          }
+          Integer field = known.get(template.substring(i + 1, end));
+          if (field == null) {
+            throw new IllegalArgumentException("Unknown placeholder " + template.substring(i, end + 1) +
+                    ", expected one of " + known.keySet());
+          }
+          literals.add(literal.toString());
+          fields.add(field);
+          literal.setLength(0);
+          i = end + 1;
+        }
+      }
+      literals.add(literal.toString());
+      return new Template(literals.toArray(String[]::new), fields.stream().mapToInt(Integer::intValue).toArray());
+    }
+  }
+}
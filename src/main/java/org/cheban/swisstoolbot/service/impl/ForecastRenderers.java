@@ -0,0 +1,61 @@
+package org.cheban.swisstoolbot.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.cheban.swisstoolbot.objects.Units;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled {@link ForecastRenderer}s per template, units and locale, so per-chat preferences cost a map lookup.
+ * All configured templates are compiled at startup, a broken template fails the start instead of a /weather call.
+ */
+@Slf4j
+@Component
+public class ForecastRenderers {
+  private final Map<String, BotProperties.Template> templates;
+  private final String defaultTemplate;
+  private final Units defaultUnits;
+  private final Locale defaultLocale;
+  private final Map<Key, ForecastRenderer> renderers = new ConcurrentHashMap<>();
+
+  public ForecastRenderers(BotProperties botProperties) {
+    BotProperties.Forecast properties = botProperties.getForecast();
+    this.templates = Map.copyOf(properties.getTemplates());
+    this.defaultTemplate = properties.getTemplate();
+    this.defaultUnits = properties.getUnits();
+    this.defaultLocale = properties.getLocale();
+    if (!templates.containsKey(defaultTemplate)) {
+      throw new IllegalArgumentException("Unknown default forecast template: " + defaultTemplate);
+    }
+    templates.keySet().forEach(name -> get(name, null, null));
+  }
+
+  public Set<String> templates() {
+    return templates.keySet();
+  }
+
+  /**
+   * Null arguments and unknown template names fall back to the configured defaults.
+   */
+  public ForecastRenderer get(String template, Units units, String locale) {
+    String name = template != null && templates.containsKey(template) ? template : defaultTemplate;
+    Units u = Objects.requireNonNullElse(units, defaultUnits);
+    return renderers.computeIfAbsent(new Key(name, u, locale), this::compile);
+  }
+
+  private ForecastRenderer compile(Key key) {
+    BotProperties.Template template = templates.get(key.template());
+    Locale locale = key.locale() != null ? Locale.forLanguageTag(key.locale()) : defaultLocale;
+    log.info("[compile] Forecast template {} for {} {}", key.template(), key.units(), locale);
+    return new ForecastRenderer(template.getHeader(), template.getDay(), key.units(), locale);
+  }
+
+  private record Key(String template, Units units, String locale) {
+  }
+}
@@ -0,0 +1,218 @@
+package org.cheban.swisstoolbot.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.cheban.swisstoolbot.objects.Forecast;
+import org.cheban.swisstoolbot.service.WeatherService;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Asks the providers in order of their recent latency. If the first one hasn't answered after {@code hedgeDelay},
+ * the next one is asked as well and the first forecast wins; a failed or empty answer moves on to the next provider
+ * right away. Calls that lost are cancelled.
+ */
+@Slf4j
+public class HedgingWeatherService implements WeatherService, DisposableBean {
+  private final List<Provider> providers = new ArrayList<>();
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final ObservationRegistry observationRegistry;
+  private final long hedgeDelayNanos;
+  private final long timeoutNanos;
+  private final boolean ranking;
+  private final double smoothing;
+  private final Counter hedges;
+  private final Counter failovers;
+
+  public HedgingWeatherService(Map<String, WeatherService> services, BotProperties.Weather properties,
+                               ObservationRegistry observationRegistry, MeterRegistry meterRegistry) {
+    this.observationRegistry = observationRegistry;
+    this.hedgeDelayNanos = properties.getHedgeDelay().toNanos();
+    this.timeoutNanos = properties.getTimeout().toNanos();
+    this.ranking = properties.isRanking();
+    this.smoothing = properties.getLatencySmoothing();
+    for (String name : properties.getProviders()) {
+      WeatherService service = services.get(name);
+      if (service == null) {
+        throw new IllegalArgumentException("Unknown weather provider " + name + ", expected one of " + services.keySet());
+      }
+      providers.add(new Provider(name, providers.size(), service, meterRegistry));
+    }
+    if (providers.isEmpty()) {
+      throw new IllegalArgumentException("No weather providers configured");
+    }
+    this.hedges = Counter.builder("weather.hedges").register(meterRegistry);
+    this.failovers = Counter.builder("weather.failovers").register(meterRegistry);
+  }
+
+  @Override
+  public Optional<Forecast> forecast(double lat, double lon) {
+    return forecast(lat, lon, calls -> {
+    });
+  }
+
+  /**
+   * Reports the providers asked, hedges and failovers included.
+   */
+  @Override
+  public Optional<Forecast> forecast(double lat, double lon, IntConsumer upstreamCalls) {
+    List<Provider> ranked = ranked();
+    CompletionService<Forecast> completion = new ExecutorCompletionService<>(executor);
+    List<Future<Forecast>> futures = new ArrayList<>(ranked.size());
+    // providers run on other threads, so their upstream calls are attached to the caller's observation explicitly
+    Observation parent = observationRegistry.getCurrentObservation();
+
+    long deadline = System.nanoTime() + timeoutNanos;
+    long nextHedge = System.nanoTime() + hedgeDelayNanos;
+    int next = 0;
+    int pending = 0;
+    try {
+      futures.add(completion.submit(() -> ranked.get(0).call(lat, lon, parent)));
+      next++;
+      pending++;
+      while (pending > 0) {
+        long now = System.nanoTime();
+        if (now - deadline >= 0) {
+          log.warn("[forecast] No provider answered within {} ms", TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+          break;
+        }
+
+        long wait = next < ranked.size() ? Math.min(nextHedge - now, deadline - now) : deadline - now;
+        Future<Forecast> done = completion.poll(wait, TimeUnit.NANOSECONDS);
+        if (done == null) {
+          if (next < ranked.size() && System.nanoTime() - nextHedge >= 0) {
+            Provider provider = ranked.get(next++);
+            log.info("[forecast] Hedging with {}", provider.name);
+            hedges.increment();
+            futures.add(completion.submit(() -> provider.call(lat, lon, parent)));
+            pending++;
+            nextHedge = System.nanoTime() + hedgeDelayNanos;
+          }
+          continue;
+        }
+
+        pending--;
+        Forecast forecast = done.get();
+        if (forecast != null) {
+          return Optional.of(forecast);
+        }
+        if (next < ranked.size()) {
+          Provider provider = ranked.get(next++);
+          log.info("[forecast] Failing over to {}", provider.name);
+          failovers.increment();
+          futures.add(completion.submit(() -> provider.call(lat, lon, parent)));
+          pending++;
+          nextHedge = System.nanoTime() + hedgeDelayNanos;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      log.error("[forecast] Exception during weather request", e);
+    } finally {
+      futures.forEach(f -> f.cancel(true));
+      upstreamCalls.accept(futures.size());
+    }
+    return Optional.empty();
+  }
+
+  private List<Provider> ranked() {
+    if (!ranking || providers.size() == 1) {
+      return providers;
+    }
+    // providers without samples rank first, so each of them gets measured
+    return providers.stream()
+            .sorted(Comparator.comparingDouble((Provider p) -> p.latencyNanos).thenComparingInt(p -> p.order))
+            .toList();
+  }
+
+  @Override
+  public void destroy() {
+    executor.shutdownNow();
+  }
+
+  private final class Provider {
+    private final String name;
+    private final int order;
+    private final WeatherService service;
+    private final Timer ok;
+    private final Timer empty;
+    private final Timer error;
+    private final Timer cancelled;
+    // smoothed latency, a failure counts as the full timeout
+    private volatile double latencyNanos;
+
+    private Provider(String name, int order, WeatherService service, MeterRegistry meterRegistry) {
+      this.name = name;
+      this.order = order;
+      this.service = service;
+      this.ok = timer(meterRegistry, "ok");
+      this.empty = timer(meterRegistry, "empty");
+      this.error = timer(meterRegistry, "error");
+      this.cancelled = timer(meterRegistry, "cancelled");
+    }
+
+    private Timer timer(MeterRegistry meterRegistry, String outcome) {
+      return Timer.builder("weather.provider")
+              .tags("provider", name, "outcome", outcome)
+              .publishPercentileHistogram()
+              .register(meterRegistry);
+    }
+
+    private Forecast call(double lat, double lon, Observation parent) {
+      long start = System.nanoTime();
+      Forecast forecast = null;
+      boolean failed = false;
+      try {
+        if (parent == null) {
+          forecast = service.forecast(lat, lon).orElse(null);
+        } else {
+          try (Observation.Scope ignored = parent.openScope()) {
+            forecast = service.forecast(lat, lon).orElse(null);
+          }
+        }
+        return forecast;
+      } catch (RuntimeException e) {
+        log.error("[forecast] {} failed", name, e);
+        failed = true;
+        return null;
+      } finally {
+        long elapsed = System.nanoTime() - start;
+        if (Thread.currentThread().isInterrupted()) {
+          cancelled.record(elapsed, TimeUnit.NANOSECONDS);
+          // a cancelled call took at least this long
+          latencyNanos = Math.max(latencyNanos, elapsed);
+        } else if (forecast != null) {
+          ok.record(elapsed, TimeUnit.NANOSECONDS);
+          sample(elapsed);
+        } else {
+          (failed ? error : empty).record(elapsed, TimeUnit.NANOSECONDS);
+          sample(timeoutNanos);
+        }
+      }
+    }
+
+    private void sample(long nanos) {
+      double current = latencyNanos;
+      latencyNanos = current == 0 ? nanos : current + smoothing * (nanos - current);
+    }
+  }
+}
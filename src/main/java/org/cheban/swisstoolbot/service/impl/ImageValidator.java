@@ -0,0 +1,337 @@
+package org.cheban.swisstoolbot.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.cheban.swisstoolbot.objects.ImageInfo;
+import org.cheban.swisstoolbot.objects.ImageResult;
+import org.cheban.swisstoolbot.util.HttpUtil;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks image candidates with HEAD requests on a shared virtual thread executor.
+ * The number of checks in flight is limited globally and per host, results are cached per URL
+ * and hosts that keep failing are skipped for a while.
+ */
+@Slf4j
+@Component
+public class ImageValidator implements DisposableBean {
+  private static final ImageInfo FAILED = new ImageInfo(0, null, -1);
+
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final ObservationRegistry observationRegistry;
+  private final MediaCache mediaCache;
+  private final Semaphore globalPermits;
+  private final int maxConcurrentPerHost;
+  private final Cache<String, HostState> hosts = Caffeine.newBuilder()
+          .expireAfterAccess(Duration.ofMinutes(10))
+          .build();
+  private final Cache<String, ImageInfo> results;
+  private final long timeoutNanos;
+  private final int hostFailureThreshold;
+  private final long hostCooldownNanos;
+  private final long positiveTtlNanos;
+  private final long negativeTtlNanos;
+
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final LongAdder validations = new LongAdder();
+  private final LongAdder cancelled = new LongAdder();
+  private final LongAdder cacheHits = new LongAdder();
+  private final LongAdder skippedHosts = new LongAdder();
+  private final Timer validTimer;
+  private final Timer invalidTimer;
+  private final Timer errorTimer;
+  private final Timer cancelledTimer;
+
+  public ImageValidator(BotProperties botProperties, ObservationRegistry observationRegistry, MediaCache mediaCache,
+                        MeterRegistry meterRegistry) {
+    this.observationRegistry = observationRegistry;
+    this.mediaCache = mediaCache;
+    BotProperties.ImageValidation properties = botProperties.getImageValidation();
+    this.globalPermits = new Semaphore(properties.getMaxConcurrent(), true);
+    this.maxConcurrentPerHost = properties.getMaxConcurrentPerHost();
+    this.timeoutNanos = properties.getTimeout().toNanos();
+    this.hostFailureThreshold = properties.getHostFailureThreshold();
+    this.hostCooldownNanos = properties.getHostCooldown().toNanos();
+    this.positiveTtlNanos = properties.getPositiveTtl().toNanos();
+    this.negativeTtlNanos = properties.getNegativeTtl().toNanos();
+    this.results = Caffeine.newBuilder()
+            .maximumSize(properties.getCacheSize())
+            .expireAfter(new ResultExpiry())
+            .build();
+    this.validTimer = timer(meterRegistry, "valid");
+    this.invalidTimer = timer(meterRegistry, "invalid");
+    this.errorTimer = timer(meterRegistry, "error");
+    this.cancelledTimer = timer(meterRegistry, "cancelled");
+  }
+
+  /**
+   * Returns up to {@code num} valid images, keeping the order of {@code candidates}.
+   * Cached results and images Telegram already has are used without a network call; the remaining
+   * candidates are checked until {@code num} images passed, then checks still in flight are cancelled.
+   */
+  public List<ImageResult> validate(List<ImageResult> candidates, int num) {
+    if (num <= 0 || candidates.isEmpty()) {
+      return List.of();
+    }
+
+    boolean[] passed = new boolean[candidates.size()];
+    int passedCount = 0;
+    List<Integer> unknown = new ArrayList<>();
+    for (int i = 0; i < candidates.size(); i++) {
+      String src = candidates.get(i).src();
+      ImageInfo info = results.getIfPresent(src);
+      // Telegram has fetched this image before, it will be sent by file id
+      boolean known = mediaCache.contains(MediaCache.Kind.PHOTO, src) ||
+              mediaCache.contains(MediaCache.Kind.DOCUMENT, src);
+      if (known || info != null) {
+        cacheHits.increment();
+        if (known || isSendable(info)) {
+          passed[i] = true;
+          passedCount++;
+        }
+      } else if (isHostSkipped(host(src))) {
+        skippedHosts.increment();
+      } else {
+        unknown.add(i);
+      }
+    }
+
+    if (passedCount < num && !unknown.isEmpty()) {
+      passedCount += check(candidates, unknown, num - passedCount, passed);
+    }
+
+    List<ImageResult> validated = new ArrayList<>(Math.min(passedCount, num));
+    for (int i = 0; i < passed.length && validated.size() < num; i++) {
+      if (passed[i]) {
+        validated.add(candidates.get(i));
+      }
+    }
+    return validated;
+  }
+
+  /**
+   * How a validated image is sent, decided by what its check found: a GIF goes as a document to stay animated.
+   * Images without a cached check go as photos.
+   */
+  public MediaCache.Kind kind(String src) {
+    if (mediaCache.contains(MediaCache.Kind.PHOTO, src)) {
+      return MediaCache.Kind.PHOTO;
+    }
+    if (mediaCache.contains(MediaCache.Kind.DOCUMENT, src)) {
+      return MediaCache.Kind.DOCUMENT;
+    }
+    ImageInfo info = results.getIfPresent(src);
+    return info != null && HttpUtil.isDocumentForTg(info) ? MediaCache.Kind.DOCUMENT : MediaCache.Kind.PHOTO;
+  }
+
+  public int activeValidations() {
+    return active.get();
+  }
+
+  public int waitingValidations() {
+    return waiting.get();
+  }
+
+  public int availablePermits() {
+    return globalPermits.availablePermits();
+  }
+
+  public long validations() {
+    return validations.sum();
+  }
+
+  public long cancelledValidations() {
+    return cancelled.sum();
+  }
+
+  public long cacheHits() {
+    return cacheHits.sum();
+  }
+
+  public long skippedHosts() {
+    return skippedHosts.sum();
+  }
+
+  private int check(List<ImageResult> candidates, List<Integer> indexes, int needed, boolean[] passed) {
+    CompletionService<Integer> completion = new ExecutorCompletionService<>(executor);
+    List<Future<Integer>> futures = new ArrayList<>(indexes.size());
+    // checks run on other threads, so the HEAD requests are attached to the caller's observation explicitly
+    Observation parent = observationRegistry.getCurrentObservation();
+    for (int index : indexes) {
+      futures.add(completion.submit(() -> {
+        if (parent == null) {
+          return check(candidates.get(index)) ? index : -1;
+        }
+        try (Observation.Scope ignored = parent.openScope()) {
+          return check(candidates.get(index)) ? index : -1;
+        }
+      }));
+    }
+
+    int passedCount = 0;
+    long deadline = System.nanoTime() + timeoutNanos;
+    try {
+      for (int done = 0; done < futures.size() && passedCount < needed; done++) {
+        Future<Integer> future = completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (future == null) {
+          log.warn("[validate] Timed out with {} of {} images validated", passedCount, needed);
+          break;
+        }
+        int index = future.get();
+        if (index >= 0) {
+          passed[index] = true;
+          passedCount++;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      log.error("[validate] Exception during image validation", e);
+    } finally {
+      futures.stream().filter(f -> f.cancel(true)).forEach(f -> cancelled.increment());
+    }
+    return passedCount;
+  }
+
+  private boolean check(ImageResult image) throws InterruptedException {
+    String host = host(image.src());
+    HostState hostState = hosts.get(host, h -> new HostState(new Semaphore(maxConcurrentPerHost)));
+    waiting.incrementAndGet();
+    try {
+      hostState.permits.acquire();
+    } finally {
+      waiting.decrementAndGet();
+    }
+
+    try {
+      waiting.incrementAndGet();
+      try {
+        globalPermits.acquire();
+      } finally {
+        waiting.decrementAndGet();
+      }
+
+      active.incrementAndGet();
+      long start = System.nanoTime();
+      Timer timer = errorTimer;
+      try {
+        ImageInfo info = HttpUtil.imageInfo(image.src());
+        hostState.failures.set(0);
+        results.put(image.src(), info);
+        boolean sendable = isSendable(info);
+        timer = sendable ? validTimer : invalidTimer;
+        return sendable;
+      } catch (InterruptedException e) {
+        // enough images passed, the check was cancelled
+        timer = cancelledTimer;
+        throw e;
+      } catch (IOException | IllegalArgumentException e) {
+        log.error("[validate] {} Exception during url check: {}", image.src(), e.getMessage());
+        if (hostState.failures.incrementAndGet() >= hostFailureThreshold) {
+          hostState.skipUntil = System.nanoTime() + hostCooldownNanos;
+          log.warn("[validate] Skipping host {} for a while after {} failures", host, hostState.failures.get());
+        }
+        results.put(image.src(), FAILED);
+        return false;
+      } finally {
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        validations.increment();
+        active.decrementAndGet();
+        globalPermits.release();
+      }
+    } finally {
+      hostState.permits.release();
+    }
+  }
+
+  private static Timer timer(MeterRegistry meterRegistry, String outcome) {
+    return Timer.builder("bot.image.validation")
+            .tag("outcome", outcome)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+  }
+
+  private static boolean isSendable(ImageInfo info) {
+    return HttpUtil.isValidForTg(info) || HttpUtil.isDocumentForTg(info);
+  }
+
+  private boolean isHostSkipped(String host) {
+    HostState state = hosts.getIfPresent(host);
+    if (state == null || state.skipUntil == 0) {
+      return false;
+    }
+    if (state.skipUntil - System.nanoTime() > 0) {
+      return true;
+    }
+    // cooldown is over, let the next check probe the host again
+    state.skipUntil = 0;
+    state.failures.set(hostFailureThreshold - 1);
+    return false;
+  }
+
+  private static String host(String url) {
+    try {
+      String host = URI.create(url).getHost();
+      return host != null ? host : "";
+    } catch (IllegalArgumentException e) {
+      return "";
+    }
+  }
+
+  @Override
+  public void destroy() {
+    executor.shutdownNow();
+  }
+
+  private final class ResultExpiry implements Expiry<String, ImageInfo> {
+    @Override
+    public long expireAfterCreate(String url, ImageInfo info, long currentTime) {
+      return isSendable(info) ? positiveTtlNanos : negativeTtlNanos;
+    }
+
+    @Override
+    public long expireAfterUpdate(String url, ImageInfo info, long currentTime, long currentDuration) {
+      return expireAfterCreate(url, info, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(String url, ImageInfo info, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+  }
+
+  private static final class HostState {
+    private final Semaphore permits;
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile long skipUntil;
+
+    private HostState(Semaphore permits) {
+      this.permits = permits;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package org.cheban.swisstoolbot.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.cheban.swisstoolbot.util.JsonUtil;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the {@code file_id} Telegram assigned to a file it fetched from a source URL, so the same image or
+ * document is sent again by id instead of making Telegram download it once more. Photo and document ids are kept
+ * apart since Telegram doesn't accept one for the other. The most recently used entries are persisted to a JSON file.
+ */
+@Slf4j
+@Component
+public class MediaCache {
+  public enum Kind {
+    PHOTO,
+    DOCUMENT
+  }
+
+  private final Path file;
+  private final int maxEntries;
+  private final Cache<Key, String> fileIds;
+  private final AtomicBoolean dirty = new AtomicBoolean();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder invalidated = new LongAdder();
+
+  public MediaCache(BotProperties botProperties) {
+    BotProperties.MediaCache properties = botProperties.getMediaCache();
+    this.file = properties.getFile();
+    this.maxEntries = properties.getMaxEntries();
+    this.fileIds = Caffeine.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfterAccess(properties.getExpireAfterAccess())
+            .build();
+    load();
+  }
+
+  public Optional<String> fileId(Kind kind, String url) {
+    String fileId = fileIds.getIfPresent(new Key(kind, url));
+    if (fileId != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+    }
+    return Optional.ofNullable(fileId);
+  }
+
+  /**
+   * Whether Telegram already accepted {@code url}, checking doesn't count as a cache request.
+   */
+  public boolean contains(Kind kind, String url) {
+    return fileIds.asMap().containsKey(new Key(kind, url));
+  }
+
+  public void put(Kind kind, String url, String fileId) {
+    if (url == null || fileId == null || fileId.equals(url)) {
+      return;
+    }
+    if (!fileId.equals(fileIds.asMap().put(new Key(kind, url), fileId))) {
+      dirty.set(true);
+    }
+  }
+
+  /**
+   * Drops the id after Telegram refused it, the next send goes by URL again.
+   */
+  public void invalidate(Kind kind, String url) {
+    if (fileIds.asMap().remove(new Key(kind, url)) != null) {
+      invalidated.increment();
+      dirty.set(true);
+    }
+  }
+
+  public long hits() {
+    return hits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  public long invalidated() {
+    return invalidated.sum();
+  }
+
+  public long size() {
+    return fileIds.estimatedSize();
+  }
+
+  @Scheduled(fixedDelayString = "${bot.media-cache.flush-interval:PT5M}")
+  public void flush() {
+    if (file == null || !dirty.getAndSet(false)) {
+      return;
+    }
+
+    Map<Key, String> hottest = fileIds.policy().expireAfterAccess()
+            .map(expiry -> expiry.youngest(maxEntries))
+            .orElseGet(fileIds::asMap);
+    List<Entry> entries = hottest.entrySet().stream()
+            .map(e -> new Entry(e.getKey().kind(), e.getKey().url(), e.getValue()))
+            .toList();
+    try {
+      Path parent = file.toAbsolutePath().getParent();
+      Files.createDirectories(parent);
+      Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+      try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        JsonUtil.writeObject(w, entries);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      log.info("[flush] Saved {} media file ids", entries.size());
+    } catch (IOException | IllegalArgumentException e) {
+      dirty.set(true);
+      log.error("[flush] Could not save media cache to {}", file, e);
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    flush();
+  }
+
+  private void load() {
+    if (file == null || !Files.exists(file)) {
+      return;
+    }
+
+    try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      List<Entry> entries = JsonUtil.parseObjectList(r, Entry.class);
+      // the file lists the most recently used first, loading it backwards keeps that order for eviction
+      for (int i = entries.size() - 1; i >= 0; i--) {
+        Entry entry = entries.get(i);
+        if (entry.kind() != null && entry.url() != null && entry.fileId() != null) {
+          fileIds.put(new Key(entry.kind(), entry.url()), entry.fileId());
+        }
+      }
+      log.info("[load] Loaded {} media file ids from {}", fileIds.estimatedSize(), file);
+    } catch (IOException | IllegalArgumentException e) {
+      log.error("[load] Could not read media cache from {}", file, e);
+    }
+  }
+
+  private record Key(Kind kind, String url) {
+  }
+
+  private record Entry(Kind kind, String url, String fileId) {
+  }
+}
@@ -1,87 +1,149 @@
 package org.cheban.swisstoolbot.service.impl;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
 import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.objects.Forecast;
 import org.cheban.swisstoolbot.service.WeatherService;
 import org.cheban.swisstoolbot.util.HttpUtil;
+import org.cheban.swisstoolbot.util.JsonUtil;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 public class OpenMeteoWeatherService implements WeatherService {
   private static final String API_URL = "http://api.open-meteo.com/v1/forecast?latitude=%.6f&longitude=%.6f&timezone=auto&daily=weather_code,temperature_2m_max,temperature_2m_min,apparent_temperature_max,apparent_temperature_min&current=temperature_2m,apparent_temperature,weather_code";
-  private static final String HEADER_TEMPLATE = "Weather for %s\n\nCurrently %s %.0f° (FL %.0f°)\n\n";
-  private static final String DAY_TEMPLATE = "%1$ta %1$te %1$tb %2$s %3$.0f° / %4$.0f° (FL %5$.0f° / %6$.0f°)";
+  private static final String UNKNOWN_ICON = "❓";
+  private static final String[] ICONS = new String[100];
 
-  public Optional<String> forecastMsg(String name, Double lat, Double lon) {
-    JsonNode response = HttpUtil.loadJson(String.format(API_URL, lat, lon));
-    if (response != null && response.isObject()) {
-      JsonNode currently = response.get("current");
-      Integer weatherCode = currently.get("weather_code").asInt();
-      Double temperature = currently.get("temperature_2m").asDouble();
-      Double apparentTemperature = currently.get("apparent_temperature").asDouble();
-      String msg = String.format(HEADER_TEMPLATE, name, getWeatherIcon(weatherCode), temperature, apparentTemperature) +
-              parseDailyData(response.get("daily")).stream()
-                      .map(OpenMeteoWeatherService::formatDailyData)
-                      .collect(Collectors.joining("\n"));
-      return Optional.of(msg);
-    } else {
+  static {
+    Arrays.fill(ICONS, UNKNOWN_ICON);
+    icon("☀️", 0); // Clear sky
+    icon("⛅️", 1, 2, 3); // Mainly clear, partly cloudy, or overcast
+    icon("🌫️", 45, 48); // Fog or depositing rime fog
+    icon("🌧️", 51, 53, 55); // Drizzle: Light, moderate, or dense intensity
+    icon("🧊🌧️", 56, 57); // Freezing Drizzle: Light or dense intensity
+    icon("🌧️", 61, 63, 65); // Rain: Slight, moderate, or heavy intensity
+    icon("🧊🌧️", 66, 67); // Freezing Rain: Light or heavy intensity
+    icon("❄️", 71, 73, 75); // Snow fall: Slight, moderate, or heavy intensity
+    icon("🌨️", 77); // Snow grains
+    icon("🌦️", 80, 81, 82); // Rain showers: Slight, moderate, or violent
+    icon("🌨️", 85, 86); // Snow showers: Slight or heavy
+    icon("⛈️", 95, 96, 99); // Thunderstorm: Slight or moderate, with or without slight or heavy hail
+  }
+
+  @Override
+  public Optional<Forecast> forecast(double lat, double lon) {
+    Forecast forecast = HttpUtil.loadJson(String.format(API_URL, lat, lon), OpenMeteoWeatherService::parse);
+    if (forecast == null) {
       log.error("Could not fetch weather");
-      return Optional.empty();
     }
+    return Optional.ofNullable(forecast);
   }
 
-  private List<WeatherData> parseDailyData(JsonNode daily) {
-    List<WeatherData> weatherDataList = new ArrayList<>();
-
-    JsonNode timeNodes = daily.get("time");
-    JsonNode tempMinNodes = daily.get("temperature_2m_min");
-    JsonNode tempMaxNodes = daily.get("temperature_2m_max");
-    JsonNode appTempMinNodes = daily.get("apparent_temperature_min");
-    JsonNode appTempMaxNodes = daily.get("apparent_temperature_max");
-    JsonNode weatherCodeNodes = daily.get("weather_code");
+  /**
+   * Reads the current conditions and the parallel daily arrays straight into primitives, the unit sections are skipped.
+   */
+  static Forecast parse(Reader reader) {
+    return JsonUtil.parseStream(reader, p -> {
+      Forecast.Current[] current = {null};
+      Daily daily = new Daily();
+      JsonUtil.readObject(p, (field, v) -> switch (field) {
+        case "current" -> {
+          current[0] = readCurrent(v);
+          yield true;
+        }
+        case "daily" -> {
+          readDaily(v, daily);
+          yield true;
+        }
+        default -> false;
+      });
+      if (current[0] == null) {
+        throw new IllegalArgumentException("Incomplete Open-Meteo response");
+      }
+      return new Forecast(current[0], daily.toDays());
+    });
+  }
 
-    for (int i = 0; i < timeNodes.size(); i++) {
-      weatherDataList.add(new WeatherData(LocalDate.parse(timeNodes.get(i).asText()),
-              tempMinNodes.get(i).asDouble(),
-              tempMaxNodes.get(i).asDouble(),
-              appTempMinNodes.get(i).asDouble(),
-              appTempMaxNodes.get(i).asDouble(),
-              weatherCodeNodes.get(i).asInt()));
-    }
+  private static Forecast.Current readCurrent(JsonParser p) throws IOException {
+    double[] values = {Double.NaN, Double.NaN, Double.NaN};
+    JsonUtil.readObject(p, (field, v) -> {
+      int index = switch (field) {
+        case "temperature_2m" -> 0;
+        case "apparent_temperature" -> 1;
+        case "weather_code" -> 2;
+        default -> -1;
+      };
+      if (index < 0) {
+        return false;
+      }
+      values[index] = JsonUtil.readDouble(v);
+      return true;
+    });
+    return new Forecast.Current(getWeatherIcon(values[2]), values[0], values[1]);
+  }
 
-    return weatherDataList;
+  private static void readDaily(JsonParser p, Daily daily) throws IOException {
+    JsonUtil.readObject(p, (field, v) -> {
+      switch (field) {
+        case "time" -> JsonUtil.readArray(v, (i, t) -> daily.dates.add(LocalDate.parse(t.getText())));
+        case "weather_code" -> daily.weatherCodes = JsonUtil.readDoubles(v);
+        case "temperature_2m_min" -> daily.tempMin = JsonUtil.readDoubles(v);
+        case "temperature_2m_max" -> daily.tempMax = JsonUtil.readDoubles(v);
+        case "apparent_temperature_min" -> daily.appTempMin = JsonUtil.readDoubles(v);
+        case "apparent_temperature_max" -> daily.appTempMax = JsonUtil.readDoubles(v);
+        default -> {
+          return false;
+        }
+      }
+      return true;
+    });
   }
 
-  private static String formatDailyData(WeatherData wd) {
-    return String.format(DAY_TEMPLATE, wd.date, getWeatherIcon(wd.weatherCode),
-            wd.tempMin, wd.tempMax, wd.appTempMin, wd.appTempMax);
+  /**
+   * A missing or null code is NaN, which would cast to 0, the code of a clear sky.
+   */
+  private static String getWeatherIcon(double weatherCode) {
+    if (Double.isNaN(weatherCode)) {
+      return UNKNOWN_ICON;
+    }
+    int code = (int) weatherCode;
+    return code >= 0 && code < ICONS.length ? ICONS[code] : UNKNOWN_ICON;
   }
 
-  private static String getWeatherIcon(Integer weatherCode) {
-    return switch (weatherCode) {
-      case 0 -> "☀️"; // Clear sky
-      case 1, 2, 3 -> "⛅️"; // Mainly clear, partly cloudy, or overcast
-      case 45, 48 -> "🌫️"; // Fog or depositing rime fog
-      case 51, 53, 55 -> "🌧️"; // Drizzle: Light, moderate, or dense intensity
-      case 56, 57 -> "🧊🌧️"; // Freezing Drizzle: Light or dense intensity
-      case 61, 63, 65 -> "🌧️"; // Rain: Slight, moderate, or heavy intensity
-      case 66, 67 -> "🧊🌧️"; // Freezing Rain: Light or heavy intensity
-      case 71, 73, 75 -> "❄️"; // Snow fall: Slight, moderate, or heavy intensity
-      case 77 -> "🌨️"; // Snow grains
-      case 80, 81, 82 -> "🌦️"; // Rain showers: Slight, moderate, or violent
-      case 85, 86 -> "🌨️"; // Snow showers: Slight or heavy
-      case 95, 96, 99 -> "⛈️"; // Thunderstorm: Slight or moderate, with or without slight or heavy hail
-      default -> "❓"; // Unknown weather code
-    };
+  private static void icon(String icon, int... weatherCodes) {
+    for (int weatherCode : weatherCodes) {
+      ICONS[weatherCode] = icon;
+    }
   }
 
-  private record WeatherData(LocalDate date, double tempMin, double tempMax, double appTempMin, double appTempMax, int weatherCode) {
+  private static final class Daily {
+    private final List<LocalDate> dates = new ArrayList<>();
+    private double[] weatherCodes = new double[0];
+    private double[] tempMin = new double[0];
+    private double[] tempMax = new double[0];
+    private double[] appTempMin = new double[0];
+    private double[] appTempMax = new double[0];
+
+    private List<Forecast.Day> toDays() {
+      List<Forecast.Day> days = new ArrayList<>(dates.size());
+      for (int i = 0; i < dates.size(); i++) {
+        days.add(new Forecast.Day(dates.get(i), getWeatherIcon(at(weatherCodes, i)),
+                at(tempMax, i), at(tempMin, i), at(appTempMax, i), at(appTempMin, i)));
+      }
+      return days;
+    }
+
+    private static double at(double[] values, int i) {
+      return i < values.length ? values[i] : Double.NaN;
+    }
   }
 }
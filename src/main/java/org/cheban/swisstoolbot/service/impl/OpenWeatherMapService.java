@@ -1,163 +1,217 @@
 package org.cheban.swisstoolbot.service.impl;
 
-import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.annotation.JsonProperty;
-import lombok.Data;
+import com.fasterxml.jackson.core.JsonParser;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.cheban.swisstoolbot.objects.Forecast;
 import org.cheban.swisstoolbot.service.WeatherService;
 import org.cheban.swisstoolbot.util.HttpUtil;
-import org.springframework.context.annotation.Primary;
+import org.cheban.swisstoolbot.util.JsonUtil;
 import org.springframework.stereotype.Service;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.Reader;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZoneId;
-import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-@Primary
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class OpenWeatherMapService implements WeatherService {
   private static final String API_URL = "http://api.openweathermap.org/data/3.0/onecall?lat=%.6f&lon=%.6f&exclude=minutely,hourly&appid=%s&units=metric";
-  private static final String HEADER_TEMPLATE = "Weather for %s\n\nCurrently %s %.0f° (FL %.0f°)\n\n";
-  private static final String DAY_TEMPLATE = "%1$ta %1$te %1$tb %2$s %3$.0f° / %4$.0f° (FL %5$.0f° / %6$.0f°)";
+
+  private static final String[] DAY_ICONS = new String[51];
+  private static final String[] NIGHT_ICONS = new String[51];
+
+  static {
+    Arrays.fill(DAY_ICONS, "");
+    Arrays.fill(NIGHT_ICONS, "");
+    icon(1, "☀️", "🌙"); // clear sky
+    icon(2, "⛅️", "☁️🌙"); // few clouds
+    icon(3, "☁️", "☁️"); // scattered clouds
+    icon(4, "☁️", "☁️"); // broken clouds
+    icon(9, "🌧️", "🌧️"); // shower rain
+    icon(10, "🌧️", "🌧️"); // rain
+    icon(11, "⛈️", "⛈️"); // thunderstorm
+    icon(13, "❄️", "❄️"); // snow
+    icon(50, "🌫️", "🌫️"); // mist
+  }
 
   private final BotProperties botProperties;
 
   @Override
-  public Optional<String> forecastMsg(String name, Double lat, Double lon) {
-    WeatherData weatherData = HttpUtil.loadJson(String.format(API_URL, lat, lon, botProperties.getOpenWeatherMapToken()), WeatherData.class);
-    if (weatherData != null) {
-      ZoneId zoneId = ZoneId.of(weatherData.getTimezone());
-      String msg = String.format(HEADER_TEMPLATE, name, getWeatherIcon(weatherData.getCurrent().getWeatherIconCode()),
-              weatherData.getCurrent().getTemp(), weatherData.getCurrent().getFeelsLike()) +
-              weatherData.getDaily().stream().map(d -> formatDailyData(d, zoneId)).collect(Collectors.joining("\n"));
-      return Optional.of(msg);
-    } else {
+  public Optional<Forecast> forecast(double lat, double lon) {
+    Forecast forecast = HttpUtil.loadJson(String.format(API_URL, lat, lon, botProperties.getOpenWeatherMapToken()),
+            OpenWeatherMapService::parse);
+    if (forecast == null) {
       log.error("Could not fetch weather");
-      return Optional.empty();
     }
+    return Optional.ofNullable(forecast);
   }
 
-  private static String formatDailyData(WeatherData.DailyWeather wd, ZoneId zoneId) {
-    ZonedDateTime date = ZonedDateTime.ofInstant(Instant.ofEpochSecond(wd.getDt()), zoneId);
-    return String.format(DAY_TEMPLATE, date.toLocalDate(), getWeatherIcon(wd.getWeatherIconCode()),
-            wd.getTemp().getMax(), wd.getTemp().getMin(), wd.getFeelsLike().getMaximum(), wd.getFeelsLike().getMinimum());
+  /**
+   * Reads the OneCall fields the message needs, everything else (alerts, hourly data, ...) is skipped unparsed.
+   */
+  static Forecast parse(Reader reader) {
+    return JsonUtil.parseStream(reader, p -> {
+      OneCall oneCall = new OneCall();
+      JsonUtil.readObject(p, (field, v) -> switch (field) {
+        case "timezone" -> {
+          oneCall.timezone = v.getValueAsString();
+          yield true;
+        }
+        case "current" -> {
+          oneCall.current = readCurrent(v);
+          yield true;
+        }
+        case "daily" -> {
+          JsonUtil.readArray(v, (i, d) -> oneCall.days.add(readDay(d)));
+          yield true;
+        }
+        default -> false;
+      });
+      return oneCall.toForecast();
+    });
   }
 
-  private static String getWeatherIcon(String weatherIcon) {
-    return switch (weatherIcon) {
-      case "01d" -> "☀️"; // clear sky day
-      case "01n" -> "🌙"; // clear sky night
-      case "02d" -> "⛅️"; // few clouds day
-      case "02n" -> "☁️🌙"; // few clouds night
-      case "03d", "03n" -> "☁️"; // scattered clouds
-      case "04d", "04n" -> "☁️"; // broken clouds
-      case "09d", "09n" -> "🌧️"; // shower rain
-      case "10d", "10n" -> "🌧️"; // rain
-      case "11d", "11n" -> "⛈️"; // thunderstorm
-      case "13d", "13n" -> "❄️"; // snow
-      case "50d", "50n" -> "🌫️"; // mist
-      default -> "";
-    };
+  private static Forecast.Current readCurrent(JsonParser p) throws IOException {
+    double[] values = {Double.NaN, Double.NaN};
+    String[] icon = {null};
+    JsonUtil.readObject(p, (field, v) -> switch (field) {
+      case "temp" -> {
+        values[0] = JsonUtil.readDouble(v);
+        yield true;
+      }
+      case "feels_like" -> {
+        values[1] = JsonUtil.readDouble(v);
+        yield true;
+      }
+      case "weather" -> {
+        icon[0] = readIconCode(v);
+        yield true;
+      }
+      default -> false;
+    });
+    return new Forecast.Current(getWeatherIcon(icon[0]), values[0], values[1]);
   }
 
-  @Data
-  @JsonIgnoreProperties(ignoreUnknown = true)
-  public static class WeatherData {
-
-    @JsonProperty("timezone")
-    private String timezone;
-
-    @JsonProperty("current")
-    private CurrentWeather current;
-
-    @JsonProperty("daily")
-    private List<DailyWeather> daily;
-
-    @Data
-    @JsonIgnoreProperties(ignoreUnknown = true)
-    public static class CurrentWeather {
-      @JsonProperty("temp")
-      private BigDecimal temp;
-
-      @JsonProperty("feels_like")
-      private BigDecimal feelsLike;
-
-      @JsonProperty("weather")
-      private List<Weather> weathers;
-
-      public String getWeatherIconCode() {
-        return Optional.ofNullable(getWeathers()).map(List::getFirst).map(Weather::getIconCode).orElse(null);
+  private static Day readDay(JsonParser p) throws IOException {
+    Day day = new Day();
+    JsonUtil.readObject(p, (field, v) -> switch (field) {
+      case "dt" -> {
+        day.dt = v.getValueAsLong();
+        yield true;
       }
-    }
-
-    @Data
-    @JsonIgnoreProperties(ignoreUnknown = true)
-    public static class DailyWeather {
-      @JsonProperty("dt")
-      private long dt;
-
-      @JsonProperty("temp")
-      private Temperature temp;
-
-      @JsonProperty("feels_like")
-      private Temperature feelsLike;
-
-      @JsonProperty("weather")
-      private List<Weather> weathers;
+      case "temp" -> {
+        day.temp = readTemperature(v);
+        yield true;
+      }
+      case "feels_like" -> {
+        day.feelsLike = readTemperature(v);
+        yield true;
+      }
+      case "weather" -> {
+        day.iconCode = readIconCode(v);
+        yield true;
+      }
+      default -> false;
+    });
+    return day;
+  }
 
-      public String getWeatherIconCode() {
-        return Optional.ofNullable(getWeathers()).map(List::getFirst).map(Weather::getIconCode).orElse(null);
+  /**
+   * Returns {@code min, max, minimum, maximum}: the reported min/max and the extremes over min, max, day and night.
+   * Feels-like temperatures come without min/max, so only the extremes are meaningful for them.
+   */
+  private static double[] readTemperature(JsonParser p) throws IOException {
+    double[] t = {Double.NaN, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+    JsonUtil.readObject(p, (field, v) -> {
+      switch (field) {
+        case "min", "max", "day", "night" -> {
+          double value = JsonUtil.readDouble(v);
+          if (field.equals("min")) {
+            t[0] = value;
+          } else if (field.equals("max")) {
+            t[1] = value;
+          }
+          if (!Double.isNaN(value)) {
+            t[2] = Math.min(t[2], value);
+            t[3] = Math.max(t[3], value);
+          }
+          return true;
+        }
+        default -> {
+          return false;
+        }
       }
-    }
+    });
+    return t;
+  }
 
-    @Data
-    @JsonIgnoreProperties(ignoreUnknown = true)
-    public static class Temperature {
-      @JsonProperty("day")
-      private BigDecimal day;
+  private static String readIconCode(JsonParser p) throws IOException {
+    String[] icon = {null};
+    JsonUtil.readArray(p, (i, w) -> JsonUtil.readObject(w, (field, v) -> {
+      if (i == 0 && field.equals("icon")) {
+        icon[0] = v.getValueAsString();
+        return true;
+      }
+      return false;
+    }));
+    return icon[0];
+  }
 
-      @JsonProperty("night")
-      private BigDecimal night;
+  /**
+   * Icon codes are a two digit condition and {@code d} or {@code n} for day and night.
+   */
+  private static String getWeatherIcon(String weatherIcon) {
+    if (weatherIcon == null || weatherIcon.length() != 3) {
+      return "";
+    }
+    int condition = (weatherIcon.charAt(0) - '0') * 10 + (weatherIcon.charAt(1) - '0');
+    String[] icons = weatherIcon.charAt(2) == 'n' ? NIGHT_ICONS : DAY_ICONS;
+    return condition >= 0 && condition < icons.length ? icons[condition] : "";
+  }
 
-      @JsonProperty("min")
-      private BigDecimal min;
+  private static void icon(int condition, String day, String night) {
+    DAY_ICONS[condition] = day;
+    NIGHT_ICONS[condition] = night;
+  }
 
-      @JsonProperty("max")
-      private BigDecimal max;
+  private static final class OneCall {
+    private String timezone;
+    private Forecast.Current current;
+    private final List<Day> days = new ArrayList<>();
 
-      public BigDecimal getMinimum() {
-        return Stream.of(getMin(), getMax(), getDay(), getNight())
-                .filter(Objects::nonNull)
-                .min(BigDecimal::compareTo)
-                .orElse(null);
+    private Forecast toForecast() {
+      if (timezone == null || current == null) {
+        throw new IllegalArgumentException("Incomplete OneCall response");
       }
-
-      public BigDecimal getMaximum() {
-        return Stream.of(getMin(), getMax(), getDay(), getNight())
-                .filter(Objects::nonNull)
-                .max(BigDecimal::compareTo)
-                .orElse(null);
+      ZoneId zoneId = ZoneId.of(timezone);
+      List<Forecast.Day> forecastDays = new ArrayList<>(days.size());
+      for (Day day : days) {
+        forecastDays.add(day.toForecastDay(zoneId));
       }
+      return new Forecast(current, forecastDays);
     }
+  }
 
-    @Data
-    @JsonIgnoreProperties(ignoreUnknown = true)
-    public static class Weather {
-      @JsonProperty("id")
-      private Integer id;
-
-      @JsonProperty("icon")
-      private String iconCode;
+  private static final class Day {
+    private long dt;
+    private String iconCode;
+    private double[] temp;
+    private double[] feelsLike;
+
+    private Forecast.Day toForecastDay(ZoneId zoneId) {
+      LocalDate date = LocalDate.ofInstant(Instant.ofEpochSecond(dt), zoneId);
+      return new Forecast.Day(date, getWeatherIcon(iconCode),
+              temp != null ? temp[1] : Double.NaN, temp != null ? temp[0] : Double.NaN,
+              feelsLike != null ? feelsLike[3] : Double.NaN, feelsLike != null ? feelsLike[2] : Double.NaN);
     }
   }
 }
@@ -0,0 +1,80 @@
+package org.cheban.swisstoolbot.util;
+
+import lombok.experimental.UtilityClass;
+import org.brotli.dec.BrotliInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+@UtilityClass
+public class ContentDecoder {
+  private static final int BUFFER_SIZE = 8192;
+
+  public static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+    if (contentEncoding == null || contentEncoding.isBlank()) {
+      return in;
+    }
+
+    // codings are listed in the order they were applied, so undo them backwards
+    String[] codings = contentEncoding.split(",");
+    InputStream decoded = in;
+    for (int i = codings.length - 1; i >= 0; i--) {
+      decoded = decodeSingle(decoded, codings[i].trim().toLowerCase(Locale.ROOT));
+    }
+    return decoded;
+  }
+
+  public static Charset charset(String contentType) {
+    if (contentType != null) {
+      for (String param : contentType.split(";")) {
+        String[] kv = param.trim().split("=", 2);
+        if (kv.length == 2 && kv[0].trim().equalsIgnoreCase("charset")) {
+          try {
+            return Charset.forName(kv[1].trim().replace("\"", ""));
+          } catch (IllegalArgumentException e) {
+            break;
+          }
+        }
+      }
+    }
+    return StandardCharsets.UTF_8;
+  }
+
+  private static InputStream decodeSingle(InputStream in, String coding) throws IOException {
+    return switch (coding) {
+      case "gzip", "x-gzip" -> new GZIPInputStream(in, BUFFER_SIZE);
+      case "deflate" -> inflate(in);
+      case "br" -> new BrotliInputStream(in);
+      case "identity", "" -> in;
+      default -> throw new IOException("Unsupported Content-Encoding: " + coding);
+    };
+  }
+
+  private static InputStream inflate(InputStream in) throws IOException {
+    // "deflate" is supposed to be zlib-wrapped, but some servers send raw deflate data
+    PushbackInputStream pushback = new PushbackInputStream(in, 2);
+    byte[] header = pushback.readNBytes(2);
+    pushback.unread(header);
+    boolean zlib = header.length == 2 &&
+            (header[0] & 0x0F) == 8 &&
+            (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+    Inflater inflater = new Inflater(!zlib);
+    return new InflaterInputStream(pushback, inflater, BUFFER_SIZE) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          inflater.end();
+        }
+      }
+    };
+  }
+}
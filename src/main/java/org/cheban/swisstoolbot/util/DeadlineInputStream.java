@@ -0,0 +1,108 @@
+package org.cheban.swisstoolbot.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the read of a response body, which {@code HttpRequest.timeout} doesn't cover. A watchdog closes the body
+ * when no byte arrived for {@code idleTimeout} or the whole body took longer than {@code totalTimeout}; closing
+ * wakes up a read blocked on it, which then fails with {@link HttpTimeoutException}.
+ */
+class DeadlineInputStream extends FilterInputStream {
+  private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(
+          Thread.ofPlatform().name("http-body-watchdog").daemon().factory());
+
+  private final Duration idleTimeout;
+  private final Duration totalTimeout;
+  private final long idleNanos;
+  private final long deadline;
+  private volatile long lastRead;
+  private volatile String expired;
+
+  // guarded by this
+  private ScheduledFuture<?> check;
+  private boolean closed;
+
+  DeadlineInputStream(InputStream in, Duration idleTimeout, Duration totalTimeout) {
+    super(in);
+    this.idleTimeout = idleTimeout;
+    this.totalTimeout = totalTimeout;
+    this.idleNanos = idleTimeout.toNanos();
+    this.lastRead = System.nanoTime();
+    this.deadline = lastRead + totalTimeout.toNanos();
+    schedule(Math.min(idleNanos, totalTimeout.toNanos()));
+  }
+
+  @Override
+  public int read() throws IOException {
+    try {
+      int b = super.read();
+      lastRead = System.nanoTime();
+      return b;
+    } catch (IOException e) {
+      throw expired(e);
+    }
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    try {
+      int n = super.read(b, off, len);
+      lastRead = System.nanoTime();
+      return n;
+    } catch (IOException e) {
+      throw expired(e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      closed = true;
+      if (check != null) {
+        check.cancel(false);
+      }
+    }
+    super.close();
+  }
+
+  private IOException expired(IOException e) {
+    String reason = expired;
+    if (reason == null) {
+      return e;
+    }
+    HttpTimeoutException timeout = new HttpTimeoutException(reason);
+    timeout.initCause(e);
+    return timeout;
+  }
+
+  private synchronized void schedule(long delayNanos) {
+    if (!closed) {
+      check = WATCHDOG.schedule(this::check, delayNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void check() {
+    long now = System.nanoTime();
+    long idleLeft = lastRead + idleNanos - now;
+    long totalLeft = deadline - now;
+    if (idleLeft > 0 && totalLeft > 0) {
+      schedule(Math.min(idleLeft, totalLeft));
+      return;
+    }
+
+    expired = idleLeft <= 0 ? "No data received for " + idleTimeout : "Body not received within " + totalTimeout;
+    try {
+      in.close();
+    } catch (IOException e) {
+      // the reader fails either way
+    }
+  }
+}
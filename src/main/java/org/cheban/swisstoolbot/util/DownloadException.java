@@ -0,0 +1,29 @@
+package org.cheban.swisstoolbot.util;
+
+import java.io.IOException;
+
+/**
+ * A document download refused by policy: bad status, non-public address, content type not allowed, too large,
+ * too slow or too many downloads at once. The message is meant for the user.
+ */
+public class DownloadException extends IOException {
+  public enum Reason {
+    STATUS,
+    ADDRESS,
+    CONTENT_TYPE,
+    TOO_LARGE,
+    TIMEOUT,
+    BUSY
+  }
+
+  private final Reason reason;
+
+  public DownloadException(Reason reason, String message) {
+    super(message);
+    this.reason = reason;
+  }
+
+  public Reason reason() {
+    return reason;
+  }
+}
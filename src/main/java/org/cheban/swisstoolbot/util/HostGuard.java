@@ -0,0 +1,224 @@
+package org.cheban.swisstoolbot.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resilience state of one upstream host: a circuit breaker over the recent failure rate, a bulkhead capping
+ * concurrent calls, a request timeout derived from the observed p99 latency and a budget for retries.
+ */
+@Slf4j
+final class HostGuard {
+  enum State {
+    CLOSED,
+    HALF_OPEN,
+    OPEN
+  }
+
+  enum Outcome {
+    SUCCESS,
+    FAILURE,
+    TIMEOUT
+  }
+
+  private static final int RECOMPUTE_EVERY = 16;
+
+  private final String host;
+  private final BotProperties.Resilience properties;
+  private final long maxTimeoutNanos;
+  private final Semaphore bulkhead;
+
+  // circuit breaker, guarded by this
+  private State state = State.CLOSED;
+  private final boolean[] outcomes;
+  private int outcomeCount;
+  private int outcomeIndex;
+  private int failureCount;
+  private long openUntilNanos;
+  private int probesInFlight;
+
+  // latency window, guarded by this
+  private final long[] latencies;
+  private int latencyCount;
+  private int latencyIndex;
+  private volatile long timeoutNanos;
+
+  // retry budget, guarded by this
+  private double retryTokens;
+
+  private final LongAdder rejectedOpen = new LongAdder();
+  private final LongAdder rejectedFull = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+
+  HostGuard(String host, BotProperties.Resilience properties, Duration maxTimeout) {
+    this.host = host;
+    this.properties = properties;
+    this.maxTimeoutNanos = maxTimeout.toNanos();
+    this.bulkhead = new Semaphore(properties.getMaxConcurrent());
+    this.outcomes = new boolean[properties.getFailureWindow()];
+    this.latencies = new long[properties.getLatencyWindow()];
+    this.timeoutNanos = maxTimeoutNanos;
+    this.retryTokens = properties.getRetryBurst();
+  }
+
+  /**
+   * Admits a call or fails fast with {@link UpstreamUnavailableException} if the circuit is open or
+   * the bulkhead stays full for {@code maxWait}.
+   */
+  Permit acquire() throws UpstreamUnavailableException, InterruptedException {
+    boolean probe;
+    synchronized (this) {
+      if (state == State.OPEN && System.nanoTime() - openUntilNanos >= 0) {
+        state = State.HALF_OPEN;
+        probesInFlight = 0;
+        log.info("[circuit] {} half-open", host);
+      }
+      probe = state == State.HALF_OPEN;
+      if (state == State.OPEN || probe && probesInFlight >= properties.getHalfOpenProbes()) {
+        rejectedOpen.increment();
+        throw new UpstreamUnavailableException("Circuit for " + host + " is open");
+      }
+      if (probe) {
+        probesInFlight++;
+      }
+    }
+
+    if (!bulkhead.tryAcquire(properties.getMaxWait().toNanos(), TimeUnit.NANOSECONDS)) {
+      if (probe) {
+        synchronized (this) {
+          probesInFlight--;
+        }
+      }
+      rejectedFull.increment();
+      throw new UpstreamUnavailableException("Too many concurrent calls to " + host);
+    }
+    return new Permit(probe, System.nanoTime());
+  }
+
+  Duration timeout() {
+    return Duration.ofNanos(timeoutNanos);
+  }
+
+  /**
+   * Every call adds a fraction of a retry token, so retries stay a bounded share of the traffic.
+   */
+  synchronized void deposit() {
+    retryTokens = Math.min(properties.getRetryBurst(), retryTokens + properties.getRetryRatio());
+  }
+
+  synchronized boolean tryRetry() {
+    if (retryTokens < 1) {
+      return false;
+    }
+    retryTokens--;
+    retries.increment();
+    return true;
+  }
+
+  synchronized State state() {
+    return state;
+  }
+
+  int inFlight() {
+    return properties.getMaxConcurrent() - bulkhead.availablePermits();
+  }
+
+  long rejectedOpen() {
+    return rejectedOpen.sum();
+  }
+
+  long rejectedFull() {
+    return rejectedFull.sum();
+  }
+
+  long retries() {
+    return retries.sum();
+  }
+
+  private synchronized void release(Permit permit, Outcome outcome) {
+    bulkhead.release();
+    long now = System.nanoTime();
+    long elapsed = now - permit.startNanos;
+    // a timed out call took at least the timeout, recording that lets the timeout grow back
+    recordLatency(outcome == Outcome.TIMEOUT ? Math.max(elapsed, timeoutNanos) : elapsed);
+
+    boolean failed = outcome != Outcome.SUCCESS;
+    if (permit.probe) {
+      probesInFlight--;
+      if (state == State.HALF_OPEN) {
+        if (failed) {
+          open(now);
+        } else {
+          state = State.CLOSED;
+          Arrays.fill(outcomes, false);
+          outcomeCount = 0;
+          failureCount = 0;
+          log.info("[circuit] {} closed", host);
+        }
+      }
+      return;
+    }
+    if (state != State.CLOSED) {
+      return;
+    }
+
+    if (outcomeCount == outcomes.length && outcomes[outcomeIndex]) {
+      failureCount--;
+    }
+    outcomes[outcomeIndex] = failed;
+    outcomeIndex = (outcomeIndex + 1) % outcomes.length;
+    outcomeCount = Math.min(outcomeCount + 1, outcomes.length);
+    if (failed) {
+      failureCount++;
+    }
+    if (outcomeCount >= properties.getMinCalls() &&
+            failureCount >= properties.getFailureRateThreshold() * outcomeCount) {
+      open(now);
+    }
+  }
+
+  private void open(long now) {
+    state = State.OPEN;
+    openUntilNanos = now + properties.getOpenDuration().toNanos();
+    log.warn("[circuit] {} open for {} after {} of {} calls failed", host, properties.getOpenDuration(),
+            failureCount, outcomeCount);
+  }
+
+  private void recordLatency(long nanos) {
+    latencies[latencyIndex] = nanos;
+    latencyIndex = (latencyIndex + 1) % latencies.length;
+    latencyCount = Math.min(latencyCount + 1, latencies.length);
+    if (latencyCount >= properties.getMinLatencySamples() && latencyIndex % RECOMPUTE_EVERY == 0) {
+      long[] sorted = Arrays.copyOf(latencies, latencyCount);
+      Arrays.sort(sorted);
+      long p99 = sorted[(int) Math.ceil(0.99 * sorted.length) - 1];
+      long adaptive = (long) (p99 * properties.getTimeoutMultiplier());
+      timeoutNanos = Math.clamp(adaptive, Math.min(properties.getMinTimeout().toNanos(), maxTimeoutNanos),
+              maxTimeoutNanos);
+    }
+  }
+
+  final class Permit {
+    private final boolean probe;
+    private final long startNanos;
+    private boolean released;
+
+    private Permit(boolean probe, long startNanos) {
+      this.probe = probe;
+      this.startNanos = startNanos;
+    }
+
+    void release(Outcome outcome) {
+      if (!released) {
+        released = true;
+        HostGuard.this.release(this, outcome);
+      }
+    }
+  }
+}
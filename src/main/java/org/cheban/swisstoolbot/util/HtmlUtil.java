@@ -2,11 +2,141 @@ package org.cheban.swisstoolbot.util;
 
 import lombok.experimental.UtilityClass;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
 @UtilityClass
 public class HtmlUtil {
   private static final String LINK_HTML = "<a href=\"%s\">%s</a>";
+  private static final int MAX_ENTITY_LENGTH = 10;
 
   public static String buildLink(String url, String text) {
     return String.format(LINK_HTML, url, text);
   }
+
+  /**
+   * Splits {@code html} into parts of at most {@code limit} characters. Tags and entities are never cut: tags open at
+   * a cut are closed at the end of one part and opened again at the start of the next. A tag too long to fit a part
+   * with its text is dropped, its text is kept.
+   */
+  public static List<String> split(String html, int limit) {
+    if (html.length() <= limit) {
+      return List.of(html);
+    }
+
+    List<String> parts = new ArrayList<>();
+    // open tags, innermost first; a dropped tag is kept without its opening tag, so its closing tag is dropped too
+    Deque<OpenTag> open = new ArrayDeque<>();
+    StringBuilder part = new StringBuilder();
+    boolean hasText = false;
+    int closing = 0;
+    int i = 0;
+    while (i < html.length()) {
+      int end = tokenEnd(html, i);
+      String token = html.substring(i, end);
+      String name = tagName(token);
+      boolean closes = name != null && token.startsWith("</");
+      OpenTag top = open.peek();
+      if (closes && top != null && top.name.equals(name)) {
+        // closing a tag only uses up room its closing tag already holds
+        open.pop();
+        if (top.tag != null) {
+          part.append(token);
+          closing -= closingTag(name).length();
+        }
+        i = end;
+        continue;
+      }
+
+      int closingAfter = name != null && !closes ? closing + closingTag(name).length() : closing;
+      if (part.length() + token.length() + closingAfter > limit) {
+        if (hasText) {
+          close(part, open);
+          parts.add(part.toString());
+          part.setLength(0);
+          open.descendingIterator().forEachRemaining(tag -> {
+            if (tag.tag != null) {
+              part.append(tag.tag);
+            }
+          });
+          hasText = false;
+        } else if (name != null && !closes) {
+          open.push(new OpenTag(name, null));
+          i = end;
+        } else {
+          // the open tags leave no room for any text, the rest goes without them
+          List<OpenTag> dropped = open.stream().map(tag -> new OpenTag(tag.name, null)).toList();
+          open.clear();
+          open.addAll(dropped);
+          part.setLength(0);
+          closing = 0;
+        }
+        continue;
+      }
+
+      if (name != null && !closes) {
+        open.push(new OpenTag(name, token));
+        closing = closingAfter;
+      } else {
+        hasText = true;
+      }
+      part.append(token);
+      i = end;
+    }
+    if (hasText) {
+      close(part, open);
+      parts.add(part.toString());
+    }
+    return parts;
+  }
+
+  /**
+   * End of the tag, entity or character starting at {@code start}.
+   */
+  private static int tokenEnd(String html, int start) {
+    char c = html.charAt(start);
+    if (c == '<') {
+      int end = html.indexOf('>', start);
+      if (end > 0) {
+        return end + 1;
+      }
+    } else if (c == '&') {
+      int end = html.indexOf(';', start);
+      if (end > 0 && end - start <= MAX_ENTITY_LENGTH) {
+        return end + 1;
+      }
+    } else if (Character.isHighSurrogate(c) && start + 1 < html.length()) {
+      return start + 2;
+    }
+    return start + 1;
+  }
+
+  private static String tagName(String token) {
+    if (token.length() < 3 || token.charAt(0) != '<' || token.charAt(token.length() - 1) != '>') {
+      return null;
+    }
+    int start = token.charAt(1) == '/' ? 2 : 1;
+    int end = start;
+    while (end < token.length() && Character.isLetterOrDigit(token.charAt(end))) {
+      end++;
+    }
+    return end > start ? token.substring(start, end).toLowerCase() : null;
+  }
+
+  private static String closingTag(String name) {
+    return "</" + name + ">";
+  }
+
+  private static void close(StringBuilder part, Deque<OpenTag> open) {
+    for (OpenTag tag : open) {
+      if (tag.tag != null) {
+        part.append(closingTag(tag.name));
+      }
+    }
+  }
+
+  private record OpenTag(String name, String tag) {
+  }
 }
@@ -4,19 +4,58 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.net.*;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import lombok.experimental.UtilityClass;
 import org.apache.commons.io.IOUtils;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.cheban.swisstoolbot.objects.DownloadInfo;
+import org.cheban.swisstoolbot.objects.ImageInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,36 +63,170 @@ import org.slf4j.LoggerFactory;
 public class HttpUtil {
   private static final Logger log = LoggerFactory.getLogger(HttpUtil.class);
   public static final long CONTENT_LENGTH_LIMIT = 5242880L;
+  public static final long DOCUMENT_LENGTH_LIMIT = 20971520L;
   public static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/130.0.0.0 Safari/537.36";
   public static final String TG_USER_AGENT = "TelegramBot (like TwitterBot)";
   public static final String ACCEPT_ALL = "image/jpeg,image/png;q=0.9,*/*;q=0.8";
   public static final String ACCEPT_JSON = "application/json;q=0.9,*/*;q=0.8";
   public static final String ACCEPT_ENCODING = "gzip, deflate, br";
+  private static final String STATUS = "status";
+  private static final String OTHER_HOST = "other";
 
   public static final Map<String, String> LOAD_JSON_HEADERS = Map.of("User-Agent", USER_AGENT, "Accept", ACCEPT_JSON);
+  public static final Map<String, String> DOWNLOAD_HEADERS = Map.of("User-Agent", USER_AGENT, "Accept", "*/*", "Accept-Encoding", "identity");
   public static final Map<String, String> URL_EXISTS_HEADERS = Map.of("User-Agent", TG_USER_AGENT, "Accept", ACCEPT_ALL, "Accept-Encoding", ACCEPT_ENCODING);
   private static final Set<Integer> OK_STATUSES = Set.of(200, 301, 302, 303, 307, 308);
+  private static final Set<Integer> RETRY_STATUSES = Set.of(502, 503, 504);
+  private static final Set<Integer> REDIRECT_STATUSES = Set.of(301, 302, 303, 307, 308);
+  private static final int MAX_REDIRECTS = 5;
   private static final Set<String> SUPPORTED_IMAGES_TYPES = Set.of("image/bmp", "image/jpeg", "image/png", "image/gif", "image/webp");
 
+  private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+  private static final Map<String, HttpClient> HOST_CLIENTS = new ConcurrentHashMap<>();
+  private static final Map<String, TrafficStats> TRAFFIC_STATS = new ConcurrentHashMap<>();
+  // image checks touch many hosts once, so idle guards are dropped
+  private static final Cache<String, HostGuard> GUARDS = Caffeine.newBuilder()
+          .expireAfterAccess(Duration.ofHours(1))
+          .build();
+  private static final Set<String> GUARD_METERS = ConcurrentHashMap.newKeySet();
+  private static final int SHARED_BODY_LIMIT = 2 * 1024 * 1024;
+  private static final long TRANSFER_CHUNK = 1024 * 1024;
+  private static final Map<FlightKey, Flight> IN_FLIGHT = new ConcurrentHashMap<>();
+  private static final LongAdder DEDUPLICATED = new LongAdder();
+  private static volatile BotProperties.Http settings = new BotProperties.Http();
+  private static volatile HttpClient defaultClient = buildClient(settings.getConnectTimeout(), HttpClient.Redirect.NORMAL);
+  // downloads follow redirects themselves, every hop is checked before it is requested
+  private static volatile HttpClient downloadClient = buildClient(settings.getConnectTimeout(), HttpClient.Redirect.NEVER);
+  private static volatile ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+  private static volatile MeterRegistry meterRegistry;
+
+  public static void configure(BotProperties.Http http, ObservationRegistry observations, MeterRegistry meters) {
+    settings = http;
+    defaultClient = buildClient(http.getConnectTimeout(), HttpClient.Redirect.NORMAL);
+    downloadClient = buildClient(http.getConnectTimeout(), HttpClient.Redirect.NEVER);
+    HOST_CLIENTS.clear();
+    GUARDS.invalidateAll();
+    observationRegistry = observations;
+    meterRegistry = meters;
+    TRAFFIC_STATS.forEach(HttpUtil::bindTrafficStats);
+    GUARD_METERS.forEach(HttpUtil::bindGuard);
+    FunctionCounter.builder("http.upstream.deduplicated", DEDUPLICATED, LongAdder::sum)
+            .register(meters);
+    for (HostGuard.State state : HostGuard.State.values()) {
+      Gauge.builder("http.upstream.circuits", () -> GUARDS.asMap().values().stream()
+                      .filter(g -> g.state() == state)
+                      .count())
+              .tag("state", state.name().toLowerCase())
+              .register(meters);
+    }
+  }
+
+  public static Map<String, TrafficStats> trafficStats() {
+    return Collections.unmodifiableMap(TRAFFIC_STATS);
+  }
+
   public static String urlEncode(String text) {
     return URLEncoder.encode(text, StandardCharsets.UTF_8);
   }
 
+  /**
+   * GETs {@code url} and transforms the body. Concurrent calls with the same URL and headers share one upstream
+   * request: the first caller streams the body into its transformer while a copy is kept, the others wait for it
+   * and each transforms its own copy.
+   */
   public static <T> T getContent(String url, Map<String, String> headers, Function<Reader, T> responseTransformer) {
+    return getContent(url, headers, responseTransformer, status -> { });
+  }
+
+  /**
+   * {@link #getContent(String, Map, Function)} that also reports the response status, so a caller can tell a refusal
+   * from a failure. A request that got no response reports nothing.
+   */
+  public static <T> T getContent(String url, Map<String, String> headers, Function<Reader, T> responseTransformer,
+                                 IntConsumer status) {
+    FlightKey key = new FlightKey(url, headers);
+    Flight flight = new Flight();
+    Flight leader = IN_FLIGHT.putIfAbsent(key, flight);
+    if (leader != null) {
+      return join(url, headers, leader, responseTransformer, status);
+    }
+
+    try {
+      return fetch(url, headers, responseTransformer, flight, status);
+    } finally {
+      // completes the followers if the request failed before the body was shared
+      if (!flight.draining) {
+        flight.body.complete(null);
+      }
+      IN_FLIGHT.remove(key, flight);
+    }
+  }
+
+  public static long deduplicatedCalls() {
+    return DEDUPLICATED.sum();
+  }
+
+  private static <T> T join(String url, Map<String, String> headers, Flight leader,
+                            Function<Reader, T> responseTransformer, IntConsumer status) {
+    DEDUPLICATED.increment();
+    log.info("Joining in-flight GET request: URL={}", url);
+    leader.joined = true;
+    SharedBody body;
+    try {
+      body = leader.body.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.error("Interrupted during GET {}", url);
+      return null;
+    } catch (ExecutionException e) {
+      return null;
+    }
+    if (body == SharedBody.NOT_SHARED) {
+      return fetch(url, headers, responseTransformer, null, status);
+    }
+    if (leader.status != 0) {
+      status.accept(leader.status);
+    }
+    if (body == null) {
+      return null;
+    }
+    try {
+      return body.transform(responseTransformer);
+    } catch (Exception e) {
+      log.error("Exception during GET", e);
+      return null;
+    }
+  }
+
+  private static <T> T fetch(String url, Map<String, String> headers, Function<Reader, T> responseTransformer,
+                             Flight flight, IntConsumer status) {
+    Observation observation = null;
     try {
       log.info("Making GET request: URL={}; Headers={}", url, headers);
-      HttpURLConnection con = connection(url, "GET", headers);
-      if (con.getResponseCode() == 200) {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()))) {
-          return responseTransformer.apply(in);
-        }
-      } else {
-        log.error("Got non-200 response: {} {}", con.getResponseCode(), con.getResponseMessage());
-        return null;
+      HttpRequest request = request(url, "GET", withAcceptEncoding(headers));
+      observation = startObservation(url, "GET", true);
+      String host = host(url);
+      HttpResponse<InputStream> response = send(host, request, HttpResponse.BodyHandlers.ofInputStream(), true);
+      observation.lowCardinalityKeyValue(STATUS, Integer.toString(response.statusCode()));
+      if (flight != null) {
+        flight.status = response.statusCode();
       }
+      status.accept(response.statusCode());
+      return transform(host, response, responseTransformer, flight);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.error("Interrupted during GET {}", url);
+      return null;
+    } catch (UpstreamUnavailableException e) {
+      log.warn("Skipped GET {}: {}", url, e.getMessage());
+      failed(observation, e);
+      return null;
     } catch (Exception e) {
       log.error("Exception during GET", e);
+      failed(observation, e);
       return null;
+    } finally {
+      stop(observation);
     }
   }
 
@@ -77,6 +250,55 @@ public class HttpUtil {
     return getContent(url, headers, r -> JsonUtil.parseObject(r, clazz));
   }
 
+  public static <T> T loadJson(String url, Map<String, String> headers, Class<T> clazz, IntConsumer status) {
+    return getContent(url, headers, r -> JsonUtil.parseObject(r, clazz), status);
+  }
+
+  /**
+   * {@link #getContent} on a virtual thread, so the host guard, single-flight and body deadline apply the same way.
+   * The observation current on the calling thread stays the parent of the request.
+   */
+  public static <T> CompletableFuture<T> getContentAsync(String url, Map<String, String> headers,
+                                                         Function<Reader, T> responseTransformer) {
+    return async(() -> getContent(url, headers, responseTransformer));
+  }
+
+  public static <T> CompletableFuture<T> loadJsonAsync(String url, Function<Reader, T> responseTransformer) {
+    return getContentAsync(url, LOAD_JSON_HEADERS, responseTransformer);
+  }
+
+  public static <T> CompletableFuture<T> loadJsonAsync(String url, Map<String, String> headers, Class<T> clazz) {
+    return getContentAsync(url, headers, r -> JsonUtil.parseObject(r, clazz));
+  }
+
+  /**
+   * {@link #imageInfo(String)} on a virtual thread, fails with the request's exception.
+   */
+  public static CompletableFuture<ImageInfo> imageInfoAsync(String url) {
+    return async(() -> {
+      try {
+        return imageInfo(url);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CancellationException("Interrupted during HEAD " + url);
+      }
+    });
+  }
+
+  private static <T> CompletableFuture<T> async(Supplier<T> call) {
+    Observation parent = observationRegistry.getCurrentObservation();
+    return CompletableFuture.supplyAsync(() -> {
+      if (parent == null) {
+        return call.get();
+      }
+      try (Observation.Scope ignored = parent.openScope()) {
+        return call.get();
+      }
+    }, EXECUTOR);
+  }
+
   @SuppressWarnings("unused")
   public static <T> List<T> loadJsonList(String url, Class<T> clazz) {
     return loadJson(url, r -> JsonUtil.parseObjectList(r, clazz));
@@ -87,21 +309,398 @@ public class HttpUtil {
     return loadJson(url, r -> JsonUtil.parseObjectRef(r, type));
   }
 
-  public static boolean imgExistsForTg(String url) {
-    log.info("[imgExistsForTg] {}", url);
+  public static ImageInfo imageInfo(String url) throws IOException, InterruptedException {
+    HttpRequest request = request(url, "HEAD", URL_EXISTS_HEADERS);
+    Observation observation = startObservation(url, "HEAD", false);
+    try {
+      HttpResponse<Void> response = send(host(url), request, HttpResponse.BodyHandlers.discarding(), false);
+      observation.lowCardinalityKeyValue(STATUS, Integer.toString(response.statusCode()));
+      return imageInfo(url, response);
+    } catch (IOException | RuntimeException e) {
+      failed(observation, e);
+      throw e;
+    } finally {
+      observation.stop();
+    }
+  }
 
+  /**
+   * GETs {@code url} into {@code target}. The body moves from the response stream into the file channel with
+   * {@link FileChannel#transferFrom}, so it is never held in memory. A non-200 status, a content type
+   * {@code acceptType} refuses, a body over {@code maxBytes} or a transfer running past {@code timeout} fail
+   * with {@link DownloadException}. The timeout closes the body, so it holds even while a read is blocked.
+   * The URL comes from a user, so it and every redirect must lead to a public address.
+   */
+  public static DownloadInfo download(String url, Path target, long maxBytes, Predicate<String> acceptType,
+                                      Duration timeout) throws IOException, InterruptedException {
+    log.info("Downloading: URL={}", url);
+    Observation observation = startObservation(url, "GET", false);
     try {
-      HttpURLConnection con = connection(url, "HEAD", URL_EXISTS_HEADERS);
-      boolean ok = OK_STATUSES.contains(con.getResponseCode()) &&
-              SUPPORTED_IMAGES_TYPES.contains(con.getContentType()) &&
-              con.getContentLengthLong() < CONTENT_LENGTH_LIMIT;
-      log.info("[imgExistsForTg] [{}] Response: {} {}; Content-Type: {} ; Content-Length: {}",
-              url, con.getResponseCode(), con.getResponseMessage(), con.getContentType(), con.getContentLengthLong());
-      return ok;
-    } catch (Exception e) {
-      log.error("[imgExistsForTg] {} Exception during url check: {}", url, e.getMessage());
+      URI uri = URI.create(url);
+      HttpResponse<InputStream> response;
+      for (int redirects = 0; ; redirects++) {
+        InetAddress[] vetted = checkPublic(uri);
+        // the connection is made by the time the headers are in, the pin is not needed for the body
+        try (PinningResolverProvider.Handle ignored = vetted != null
+                ? PinningResolverProvider.pin(uri.getHost(), vetted) : () -> { }) {
+          // documents come from any host, per-host meters would add time series for each of them
+          response = send(uri.getHost(), downloadClient, request(uri.toString(), "GET", DOWNLOAD_HEADERS),
+                  HttpResponse.BodyHandlers.ofInputStream(), false);
+        }
+        Optional<String> location = response.headers().firstValue("Location");
+        if (!REDIRECT_STATUSES.contains(response.statusCode()) || location.isEmpty()) {
+          break;
+        }
+        response.body().close();
+        if (redirects >= MAX_REDIRECTS) {
+          throw new DownloadException(DownloadException.Reason.STATUS, "Too many redirects");
+        }
+        uri = uri.resolve(location.get());
+        log.info("Download redirected: URL={}", uri);
+      }
+      observation.lowCardinalityKeyValue(STATUS, Integer.toString(response.statusCode()));
+      String host = uri.getHost();
+      try (InputStream body = new DeadlineInputStream(response.body(), requestTimeout(host), timeout)) {
+        if (response.statusCode() != 200) {
+          throw new DownloadException(DownloadException.Reason.STATUS, "Got status " + response.statusCode());
+        }
+        String contentType = response.headers().firstValue("Content-Type")
+                .map(type -> type.split(";", 2)[0].trim().toLowerCase(Locale.ROOT))
+                .orElse(null);
+        if (!acceptType.test(contentType)) {
+          throw new DownloadException(DownloadException.Reason.CONTENT_TYPE,
+                  "Content type " + contentType + " is not allowed");
+        }
+        if (response.headers().firstValueAsLong("Content-Length").orElse(-1L) > maxBytes) {
+          throw new DownloadException(DownloadException.Reason.TOO_LARGE,
+                  "Document is larger than " + maxBytes + " bytes");
+        }
+        InputStream decoded = ContentDecoder.decode(body,
+                response.headers().firstValue("Content-Encoding").orElse(null));
+        long size = transfer(decoded, target, maxBytes, timeout);
+        return new DownloadInfo(contentType, response.headers().firstValue("Content-Disposition").orElse(null), size);
+      }
+    } catch (IOException | RuntimeException e) {
+      failed(observation, e);
+      throw e;
+    } finally {
+      observation.stop();
+    }
+  }
+
+  /**
+   * Copies in chunks, so the size cap is checked while the body is still arriving.
+   */
+  private static long transfer(InputStream in, Path target, long maxBytes, Duration timeout) throws IOException {
+    try (ReadableByteChannel source = Channels.newChannel(in);
+         FileChannel file = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+      long position = 0;
+      long n;
+      // asking for one byte over the cap is enough to tell the body is too large; a read failing mid-chunk ends
+      // the chunk short, the next call reports it
+      while ((n = file.transferFrom(source, position, Math.min(TRANSFER_CHUNK, maxBytes + 1 - position))) > 0) {
+        position += n;
+        if (position > maxBytes) {
+          throw new DownloadException(DownloadException.Reason.TOO_LARGE,
+                  "Document is larger than " + maxBytes + " bytes");
+        }
+      }
+      return position;
+    } catch (HttpTimeoutException e) {
+      DownloadException timedOut = new DownloadException(DownloadException.Reason.TIMEOUT,
+              "Download stalled or took longer than " + timeout);
+      timedOut.initCause(e);
+      throw timedOut;
+    }
+  }
+
+  /**
+   * Refuses URLs that aren't http(s) or whose host resolves to a loopback, private, link-local or multicast address,
+   * so a user can't make the bot fetch from its own network. Hosts from {@code hostOverrides} are configured, not
+   * given by users, and are let through with {@code null}. Otherwise returns the vetted addresses, the request is
+   * pinned to them with {@link PinningResolverProvider}.
+   */
+  private static InetAddress[] checkPublic(URI uri) throws IOException {
+    String scheme = uri.getScheme();
+    if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme) || uri.getHost() == null) {
+      throw new DownloadException(DownloadException.Reason.ADDRESS, "Only http and https URLs can be fetched");
+    }
+    if (settings.getHostOverrides().containsKey(uri.getHost())) {
+      return null;
+    }
+    InetAddress[] addresses = InetAddress.getAllByName(uri.getHost());
+    for (InetAddress address : addresses) {
+      if (isInternal(address)) {
+        throw new DownloadException(DownloadException.Reason.ADDRESS, uri.getHost() + " is not a public address");
+      }
+    }
+    // the JVM loads its resolver on the first lookup, it is in place by now
+    if (!PinningResolverProvider.isInstalled()) {
+      log.warn("The pinning address resolver is not installed, {} is only checked before the connect", uri.getHost());
+    }
+    return addresses;
+  }
+
+  private static boolean isInternal(InetAddress address) {
+    if (address.isLoopbackAddress() || address.isAnyLocalAddress() || address.isLinkLocalAddress() ||
+            address.isSiteLocalAddress() || address.isMulticastAddress()) {
+      return true;
+    }
+    byte[] bytes = address.getAddress();
+    if (address instanceof Inet6Address) {
+      // unique local fc00::/7, the IPv6 counterpart of the private ranges
+      return (bytes[0] & 0xfe) == 0xfc;
+    }
+    // shared address space 100.64.0.0/10, used inside carrier and cloud networks
+    return (bytes[0] & 0xff) == 100 && (bytes[1] & 0xc0) == 64;
+  }
+
+  /**
+   * Whether the image goes as a document: Telegram keeps a GIF animated that way and fetches it by URL up to 20 MB.
+   */
+  public static boolean isDocumentForTg(ImageInfo info) {
+    return OK_STATUSES.contains(info.status()) &&
+            "image/gif".equals(info.contentType()) &&
+            info.contentLength() < DOCUMENT_LENGTH_LIMIT;
+  }
+
+  public static boolean isValidForTg(ImageInfo info) {
+    return OK_STATUSES.contains(info.status()) &&
+            SUPPORTED_IMAGES_TYPES.contains(info.contentType()) &&
+            info.contentLength() < CONTENT_LENGTH_LIMIT;
+  }
+
+  private static ImageInfo imageInfo(String url, HttpResponse<?> response) {
+    String contentType = response.headers().firstValue("Content-Type").orElse(null);
+    long contentLength = response.headers().firstValueAsLong("Content-Length").orElse(-1L);
+    log.info("[imageInfo] [{}] Response: {} {}; Content-Type: {} ; Content-Length: {}",
+            url, response.statusCode(), response.version(), contentType, contentLength);
+    return new ImageInfo(response.statusCode(), contentType, contentLength);
+  }
+
+  /**
+   * The body read is bounded like the baseline's read timeout: the host's request timeout without data, and
+   * {@code bodyTimeout} overall, so a stalled server can't block the caller and the callers waiting for it.
+   * With a {@code flight}, the transformer still reads the body as it arrives, a copy of up to
+   * {@link #SHARED_BODY_LIMIT} bytes is kept for the waiting callers. A larger body isn't shared, the waiting callers
+   * make their own requests then.
+   */
+  private static <T> T transform(String host, HttpResponse<InputStream> response,
+                                 Function<Reader, T> responseTransformer, Flight flight) throws IOException {
+    InputStream body = new DeadlineInputStream(response.body(), requestTimeout(host), settings.getBodyTimeout());
+    TeeInputStream tee = null;
+    Charset charset = null;
+    try {
+      if (response.statusCode() == 200) {
+        TrafficStats stats = TRAFFIC_STATS.computeIfAbsent(response.uri().getHost(), h -> {
+          TrafficStats created = new TrafficStats();
+          bindTrafficStats(h, created);
+          return created;
+        });
+        stats.responses.increment();
+        InputStream wire = new CountingInputStream(body, stats.wireBytes);
+        InputStream decoded = new CountingInputStream(
+                ContentDecoder.decode(wire, response.headers().firstValue("Content-Encoding").orElse(null)),
+                stats.decodedBytes);
+        charset = ContentDecoder.charset(response.headers().firstValue("Content-Type").orElse(null));
+        if (flight != null) {
+          tee = new TeeInputStream(decoded, SHARED_BODY_LIMIT);
+          decoded = tee;
+        }
+        // closing the decoders closes the body
+        body = decoded;
+        return responseTransformer.apply(new BufferedReader(new InputStreamReader(decoded, charset)));
+      } else {
+        log.error("Got non-200 response: {} {}", response.statusCode(), response.uri());
+        return null;
+      }
+    } finally {
+      if (tee == null || !share(flight, tee, body, charset)) {
+        body.close();
+      }
+    }
+  }
+
+  /**
+   * Completes the flight with the copy of the body. When the transformer stopped early and callers are waiting,
+   * the rest of the body is read for them in the background, which then closes {@code body}; returns whether it is.
+   */
+  private static boolean share(Flight flight, TeeInputStream tee, InputStream body, Charset charset) {
+    if (tee.isFailed()) {
+      flight.body.complete(null);
       return false;
     }
+    if (tee.isComplete() || !flight.joined) {
+      flight.body.complete(SharedBody.of(tee, charset));
+      return false;
+    }
+
+    EXECUTOR.execute(() -> {
+      try (body) {
+        tee.drain();
+        flight.body.complete(SharedBody.of(tee, charset));
+      } catch (IOException e) {
+        log.warn("Could not read the rest of a shared body: {}", e.getMessage());
+        flight.body.complete(null);
+      }
+    });
+    flight.draining = true;
+    return true;
+  }
+
+  /**
+   * Starts an {@code http.upstream} observation, a child of the observation current on the calling thread.
+   * Only the guarded GET hosts are a fixed set, any other host is tagged {@code other} so image checks and
+   * downloads don't add time series per host; the real one is kept as a high cardinality value.
+   */
+  private static Observation startObservation(String url, String method, boolean knownHost) {
+    String host = host(url);
+    return Observation.createNotStarted("http.upstream", observationRegistry)
+            .lowCardinalityKeyValue("host", knownHost ? host : OTHER_HOST)
+            .highCardinalityKeyValue("peer", host)
+            .lowCardinalityKeyValue("method", method)
+            .lowCardinalityKeyValue(STATUS, "none")
+            .highCardinalityKeyValue("url", url)
+            .start();
+  }
+
+  private static void failed(Observation observation, Throwable e) {
+    if (observation == null) {
+      return;
+    }
+    String status = e instanceof HttpTimeoutException ? "timeout" :
+            e instanceof UpstreamUnavailableException ? "rejected" : "io_error";
+    observation.lowCardinalityKeyValue(STATUS, status);
+    observation.error(e);
+  }
+
+  private static void stop(Observation observation) {
+    if (observation != null) {
+      observation.stop();
+    }
+  }
+
+  private static void bindTrafficStats(String host, TrafficStats stats) {
+    MeterRegistry registry = meterRegistry;
+    if (registry == null) {
+      return;
+    }
+    FunctionCounter.builder("http.upstream.bytes", stats, TrafficStats::wireBytes)
+            .tags("host", host, "type", "wire")
+            .baseUnit("bytes")
+            .register(registry);
+    FunctionCounter.builder("http.upstream.bytes", stats, TrafficStats::decodedBytes)
+            .tags("host", host, "type", "decoded")
+            .baseUnit("bytes")
+            .register(registry);
+  }
+
+  /**
+   * Sends through the host's {@link HostGuard}. Connection failures and 502/503/504 responses are retried while
+   * the retry budget allows; timeouts are not, a slow host would only get slower.
+   */
+  private static <T> HttpResponse<T> send(String host, HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                          boolean hostMeters) throws IOException, InterruptedException {
+    return send(host, client(request.uri()), request, handler, hostMeters);
+  }
+
+  private static <T> HttpResponse<T> send(String host, HttpClient client, HttpRequest request,
+                                          HttpResponse.BodyHandler<T> handler, boolean hostMeters)
+          throws IOException, InterruptedException {
+    HostGuard guard = guard(host);
+    if (hostMeters && GUARD_METERS.add(host)) {
+      bindGuard(host);
+    }
+    guard.deposit();
+    BotProperties.Resilience resilience = settings.getResilience();
+    for (int attempt = 1; ; attempt++) {
+      HostGuard.Permit permit = guard.acquire();
+      try {
+        HttpResponse<T> response = client.send(request, handler);
+        int status = response.statusCode();
+        permit.release(status >= 500 ? HostGuard.Outcome.FAILURE : HostGuard.Outcome.SUCCESS);
+        if (!RETRY_STATUSES.contains(status) || attempt >= resilience.getMaxAttempts() || !guard.tryRetry()) {
+          return response;
+        }
+        if (response.body() instanceof InputStream body) {
+          body.close();
+        }
+        log.warn("Retrying {} {} after status {}", request.method(), request.uri(), status);
+      } catch (HttpTimeoutException e) {
+        permit.release(HostGuard.Outcome.TIMEOUT);
+        throw e;
+      } catch (IOException e) {
+        permit.release(HostGuard.Outcome.FAILURE);
+        if (attempt >= resilience.getMaxAttempts() || !guard.tryRetry()) {
+          throw e;
+        }
+        log.warn("Retrying {} {} after {}", request.method(), request.uri(), e.toString());
+      } catch (InterruptedException | RuntimeException e) {
+        permit.release(HostGuard.Outcome.FAILURE);
+        throw e;
+      }
+      long backoff = resilience.getRetryBackoff().toMillis();
+      Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff + 1));
+    }
+  }
+
+  /**
+   * Guards are keyed by the host of the URL the caller asked for, not by the one it is overridden with.
+   */
+  private static HostGuard guard(String host) {
+    return GUARDS.get(host, h -> new HostGuard(h, settings.getResilience(), requestTimeout(h)));
+  }
+
+  /**
+   * Per-host meters only for hosts fetched with GET, image checks would add time series for every image host.
+   * The meters look the guard up on every read, so a guard dropped for idleness reads as closed and idle.
+   */
+  private static void bindGuard(String host) {
+    MeterRegistry registry = meterRegistry;
+    if (registry == null) {
+      return;
+    }
+    Gauge.builder("http.upstream.circuit.state", () -> guardValue(host, g -> g.state().ordinal()))
+            .tag("host", host)
+            .description("0 closed, 1 half-open, 2 open")
+            .register(registry);
+    Gauge.builder("http.upstream.timeout", () -> guardValue(host, g -> g.timeout().toMillis()))
+            .tag("host", host)
+            .baseUnit("milliseconds")
+            .register(registry);
+    Gauge.builder("http.upstream.in.flight", () -> guardValue(host, HostGuard::inFlight))
+            .tag("host", host)
+            .register(registry);
+    FunctionCounter.builder("http.upstream.rejected", host, h -> guardValue(h, HostGuard::rejectedOpen))
+            .tags("host", host, "reason", "circuit_open")
+            .register(registry);
+    FunctionCounter.builder("http.upstream.rejected", host, h -> guardValue(h, HostGuard::rejectedFull))
+            .tags("host", host, "reason", "bulkhead_full")
+            .register(registry);
+    FunctionCounter.builder("http.upstream.retries", host, h -> guardValue(h, HostGuard::retries))
+            .tag("host", host)
+            .register(registry);
+  }
+
+  private static double guardValue(String host, ToDoubleFunction<HostGuard> f) {
+    HostGuard guard = GUARDS.getIfPresent(host);
+    return guard != null ? f.applyAsDouble(guard) : 0;
+  }
+
+  private static String host(String url) {
+    String host = URI.create(url).getHost();
+    return host != null ? host : "none";
+  }
+
+  private static Map<String, String> withAcceptEncoding(Map<String, String> headers) {
+    if (headers != null && headers.keySet().stream().anyMatch("Accept-Encoding"::equalsIgnoreCase)) {
+      return headers;
+    }
+
+    Map<String, String> result = headers == null ? new HashMap<>() : new HashMap<>(headers);
+    result.put("Accept-Encoding", ACCEPT_ENCODING);
+    return result;
   }
 
   private static String readerToString(Reader r) {
@@ -112,17 +711,81 @@ public class HttpUtil {
     }
   }
 
-  private static HttpURLConnection connection(String url, String method, Map<String, String> headers)
-          throws IOException, URISyntaxException {
-    HttpURLConnection con = (HttpURLConnection) (new URI(url).toURL()).openConnection();
-    con.setConnectTimeout(2000);
-    con.setReadTimeout(2000);
-    con.setRequestMethod(method);
+  private static HttpRequest request(String url, String method, Map<String, String> headers) {
+    URI original = URI.create(url);
+    URI uri = override(original);
+    HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+            .timeout(guard(host(url)).timeout())
+            // h2c upgrade over plain http confuses some servers, so only negotiate HTTP/2 via TLS ALPN
+            .version("https".equalsIgnoreCase(uri.getScheme()) ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+            .method(method, HttpRequest.BodyPublishers.noBody());
     if (headers != null) {
-      Objects.requireNonNull(con);
-      headers.forEach(con::setRequestProperty);
+      headers.forEach(builder::header);
     }
 
-    return con;
+    return builder.build();
+  }
+
+  private static URI override(URI uri) {
+    String base = uri.getHost() != null ? settings.getHostOverrides().get(uri.getHost()) : null;
+    if (base == null) {
+      return uri;
+    }
+
+    URI target = URI.create(base);
+    String query = uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "";
+    return URI.create(target.getScheme() + "://" + target.getRawAuthority() + uri.getRawPath() + query);
+  }
+
+  private static HttpClient client(URI uri) {
+    Duration connectTimeout = Optional.ofNullable(settings.getHosts().get(uri.getHost()))
+            .map(BotProperties.HostTimeouts::getConnectTimeout)
+            .orElse(null);
+    if (connectTimeout == null) {
+      return defaultClient;
+    }
+    return HOST_CLIENTS.computeIfAbsent(uri.getHost(), host -> buildClient(connectTimeout, HttpClient.Redirect.NORMAL));
+  }
+
+  private static Duration requestTimeout(String host) {
+    return Optional.ofNullable(settings.getHosts().get(host))
+            .map(BotProperties.HostTimeouts::getRequestTimeout)
+            .orElse(settings.getRequestTimeout());
+  }
+
+  /**
+   * The client keeps its default executor of platform threads. Bodies are delivered on it, and a caller reading a body
+   * on a virtual thread may be pinned to its carrier, e.g. inside {@code BufferedReader.readLine}; with delivery on
+   * virtual threads as well, pinned readers can starve it until the body deadline closes the stream.
+   */
+  private static HttpClient buildClient(Duration connectTimeout, HttpClient.Redirect redirect) {
+    return HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(redirect)
+            .connectTimeout(connectTimeout)
+            .build();
+  }
+
+  private record FlightKey(String url, Map<String, String> headers) {
+  }
+
+  private static final class Flight {
+    private final CompletableFuture<SharedBody> body = new CompletableFuture<>();
+    private volatile boolean joined;
+    private volatile boolean draining;
+    private volatile int status;
+  }
+
+  private record SharedBody(byte[] bytes, Charset charset) {
+    static final SharedBody NOT_SHARED = new SharedBody(new byte[0], StandardCharsets.UTF_8);
+
+    static SharedBody of(TeeInputStream tee, Charset charset) {
+      byte[] bytes = tee.copy();
+      return bytes != null ? new SharedBody(bytes, charset) : NOT_SHARED;
+    }
+
+    <T> T transform(Function<Reader, T> responseTransformer) {
+      return responseTransformer.apply(new InputStreamReader(new ByteArrayInputStream(bytes), charset));
+    }
   }
 }
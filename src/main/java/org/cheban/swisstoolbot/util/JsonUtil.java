@@ -1,5 +1,7 @@
 package org.cheban.swisstoolbot.util;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -8,6 +10,8 @@ import lombok.experimental.UtilityClass;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.List;
 
 @UtilityClass
@@ -54,4 +58,95 @@ public class JsonUtil {
          throw new IllegalArgumentException(e);
       }
    }
+
+   public static void writeObject(Writer w, Object value) {
+      try {
+         MAPPER.writeValue(w, value);
+      } catch (IOException e) {
+         throw new IllegalArgumentException(e);
+      }
+   }
+
+   /**
+    * Reads a document token by token, {@code reader} starts on the first token.
+    */
+   public static <T> T parseStream(Reader r, StreamReader<T> reader) {
+      try (JsonParser p = MAPPER.getFactory().createParser(r)) {
+         p.nextToken();
+         return reader.read(p);
+      } catch (IOException e) {
+         throw new IllegalArgumentException(e);
+      }
+   }
+
+   /**
+    * Walks the fields of the object the parser is on. Values {@code fields} doesn't read are skipped
+    * without being materialized. Ends on the closing token of the object.
+    */
+   public static void readObject(JsonParser p, FieldReader fields) throws IOException {
+      if (p.currentToken() != JsonToken.START_OBJECT) {
+         p.skipChildren();
+         return;
+      }
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+         String name = p.currentName();
+         p.nextToken();
+         if (!fields.read(name, p)) {
+            p.skipChildren();
+         }
+      }
+   }
+
+   /**
+    * Walks the elements of the array the parser is on, {@code elements} has to read each element completely.
+    */
+   public static void readArray(JsonParser p, ElementReader elements) throws IOException {
+      if (p.currentToken() != JsonToken.START_ARRAY) {
+         p.skipChildren();
+         return;
+      }
+      int index = 0;
+      while (p.nextToken() != JsonToken.END_ARRAY) {
+         elements.read(index++, p);
+      }
+   }
+
+   public static double readDouble(JsonParser p) throws IOException {
+      return p.currentToken() == JsonToken.VALUE_NULL ? Double.NaN : p.getValueAsDouble(Double.NaN);
+   }
+
+   public static double[] readDoubles(JsonParser p) throws IOException {
+      if (p.currentToken() != JsonToken.START_ARRAY) {
+         p.skipChildren();
+         return new double[0];
+      }
+      double[] values = new double[16];
+      int size = 0;
+      while (p.nextToken() != JsonToken.END_ARRAY) {
+         if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+         }
+         values[size++] = readDouble(p);
+         p.skipChildren();
+      }
+      return size == values.length ? values : Arrays.copyOf(values, size);
+   }
+
+   @FunctionalInterface
+   public interface StreamReader<T> {
+      T read(JsonParser p) throws IOException;
+   }
+
+   @FunctionalInterface
+   public interface FieldReader {
+      /**
+       * Reads the value of field {@code name}, the parser is on its first token. Returns false to skip the value.
+       */
+      boolean read(String name, JsonParser p) throws IOException;
+   }
+
+   @FunctionalInterface
+   public interface ElementReader {
+      void read(int index, JsonParser p) throws IOException;
+   }
 }
@@ -0,0 +1,87 @@
+package org.cheban.swisstoolbot.util;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.net.spi.InetAddressResolver;
+import java.net.spi.InetAddressResolverProvider;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Resolves a pinned host to the addresses it was vetted with, so a DNS answer changing between the check and the
+ * connect can't point a download at the bot's own network. Every other lookup goes to the built-in resolver.
+ * Installed through {@code META-INF/services}, the JVM picks it up on its first lookup.
+ */
+public class PinningResolverProvider extends InetAddressResolverProvider {
+  private static final Map<String, Pin> PINS = new ConcurrentHashMap<>();
+  private static volatile boolean installed;
+
+  @Override
+  public InetAddressResolver get(Configuration configuration) {
+    InetAddressResolver builtin = configuration.builtinResolver();
+    installed = true;
+    return new InetAddressResolver() {
+      @Override
+      public Stream<InetAddress> lookupByName(String host, LookupPolicy lookupPolicy) throws UnknownHostException {
+        Pin pin = PINS.get(host.toLowerCase(Locale.ROOT));
+        return pin != null ? pin.addresses(host, lookupPolicy) : builtin.lookupByName(host, lookupPolicy);
+      }
+
+      @Override
+      public String lookupByAddress(byte[] addr) throws UnknownHostException {
+        return builtin.lookupByAddress(addr);
+      }
+    };
+  }
+
+  @Override
+  public String name() {
+    return "pinning";
+  }
+
+  static boolean isInstalled() {
+    return installed;
+  }
+
+  /**
+   * Pins {@code host} to {@code addresses} until the returned handle is closed. Concurrent pins of one host share
+   * the addresses of the first, all of them were vetted.
+   */
+  static Handle pin(String host, InetAddress[] addresses) {
+    String key = host.toLowerCase(Locale.ROOT);
+    PINS.compute(key, (h, pin) -> pin != null ? pin.retain() : new Pin(addresses.clone(), 1));
+    return () -> PINS.computeIfPresent(key, (h, pin) -> pin.release());
+  }
+
+  interface Handle extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  private record Pin(InetAddress[] addresses, int holders) {
+    Pin retain() {
+      return new Pin(addresses, holders + 1);
+    }
+
+    Pin release() {
+      return holders > 1 ? new Pin(addresses, holders - 1) : null;
+    }
+
+    Stream<InetAddress> addresses(String host, InetAddressResolver.LookupPolicy policy) throws UnknownHostException {
+      int characteristics = policy.characteristics();
+      InetAddress[] allowed = Arrays.stream(addresses)
+              .filter(a -> a instanceof Inet4Address ? (characteristics & InetAddressResolver.LookupPolicy.IPV4) != 0
+                      : a instanceof Inet6Address && (characteristics & InetAddressResolver.LookupPolicy.IPV6) != 0)
+              .toArray(InetAddress[]::new);
+      if (allowed.length == 0) {
+        throw new UnknownHostException(host + ": no pinned address of the requested family");
+      }
+      return Arrays.stream(allowed);
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package org.cheban.swisstoolbot.util;
+
+import lombok.experimental.UtilityClass;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+@UtilityClass
+public class ReaderUtil {
+  private static final int CHUNK_SIZE = 8192;
+
+  /**
+   * Scans the reader chunk by chunk and stops reading as soon as {@code pattern} matches.
+   * Matches are expected to be shorter than {@code maxMatchLength}, that much text is carried over between chunks.
+   */
+  public static String findFirst(Reader reader, Pattern pattern, int group, int maxMatchLength) {
+    char[] chunk = new char[CHUNK_SIZE];
+    StringBuilder window = new StringBuilder(CHUNK_SIZE + maxMatchLength);
+    try {
+      int n;
+      while ((n = reader.read(chunk)) != -1) {
+        window.append(chunk, 0, n);
+        Matcher matcher = pattern.matcher(window);
+        // a match that hit the end of the window could still change with more input
+        if (matcher.find() && !matcher.hitEnd()) {
+          return matcher.group(group);
+        }
+        if (window.length() > maxMatchLength) {
+          window.delete(0, window.length() - maxMatchLength);
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+
+    Matcher matcher = pattern.matcher(window);
+    return matcher.find() ? matcher.group(group) : null;
+  }
+}
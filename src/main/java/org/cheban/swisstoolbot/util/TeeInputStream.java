@@ -0,0 +1,116 @@
+package org.cheban.swisstoolbot.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Keeps a copy of the bytes read through it, so a body streamed by one caller can be replayed to others.
+ * The copy is dropped once it would exceed {@code limit}, reading goes on unaffected.
+ */
+class TeeInputStream extends FilterInputStream {
+  private static final int DRAIN_BUFFER = 8192;
+
+  private final int limit;
+  private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+  private boolean eof;
+  private boolean failed;
+
+  TeeInputStream(InputStream in, int limit) {
+    super(in);
+    this.limit = limit;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b;
+    try {
+      b = super.read();
+    } catch (IOException e) {
+      failed = true;
+      throw e;
+    }
+    if (b < 0) {
+      eof = true;
+    } else if (copy != null) {
+      copy.write(b);
+      checkLimit();
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n;
+    try {
+      n = super.read(b, off, len);
+    } catch (IOException e) {
+      failed = true;
+      throw e;
+    }
+    if (n < 0) {
+      eof = true;
+    } else if (copy != null) {
+      copy.write(b, off, n);
+      checkLimit();
+    }
+    return n;
+  }
+
+  /**
+   * Skipped bytes are read, otherwise they would be missing from the copy.
+   */
+  @Override
+  public long skip(long n) throws IOException {
+    byte[] buf = new byte[(int) Math.min(Math.max(n, 0), DRAIN_BUFFER)];
+    long left = n;
+    while (left > 0) {
+      int read = read(buf, 0, (int) Math.min(left, buf.length));
+      if (read < 0) {
+        break;
+      }
+      left -= read;
+    }
+    return n - Math.max(left, 0);
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  /**
+   * Reads the rest of the stream into the copy, stops early once the copy is dropped.
+   */
+  void drain() throws IOException {
+    byte[] buf = new byte[DRAIN_BUFFER];
+    while (!eof && copy != null) {
+      read(buf, 0, buf.length);
+    }
+  }
+
+  /**
+   * The whole stream, or {@code null} unless it was read to its end within the limit.
+   */
+  byte[] copy() {
+    return eof && copy != null ? copy.toByteArray() : null;
+  }
+
+  /**
+   * Whether reading on can no longer change {@link #copy()}.
+   */
+  boolean isComplete() {
+    return eof || copy == null;
+  }
+
+  boolean isFailed() {
+    return failed;
+  }
+
+  private void checkLimit() {
+    if (copy.size() > limit) {
+      copy = null;
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package org.cheban.swisstoolbot.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class TrafficStats {
+  final LongAdder responses = new LongAdder();
+  final LongAdder wireBytes = new LongAdder();
+  final LongAdder decodedBytes = new LongAdder();
+
+  public long responses() {
+    return responses.sum();
+  }
+
+  public long wireBytes() {
+    return wireBytes.sum();
+  }
+
+  public long decodedBytes() {
+    return decodedBytes.sum();
+  }
+
+  public long savedBytes() {
+    return Math.max(0, decodedBytes() - wireBytes());
+  }
+
+  @Override
+  public String toString() {
+    return "responses=" + responses() + "; wire=" + wireBytes() + "; decoded=" + decodedBytes();
+  }
+}
@@ -0,0 +1,12 @@
+package org.cheban.swisstoolbot.util;
+
+import java.io.IOException;
+
+/**
+ * A call rejected without touching the network, because the host's circuit is open or its bulkhead is full.
+ */
+public class UpstreamUnavailableException extends IOException {
+  public UpstreamUnavailableException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,129 @@
+package org.cheban.swisstoolbot.bot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundQueueTest {
+  private static final int CHATS = 8;
+  private static final int CALLS_PER_CHAT = 50;
+
+  private OutboundQueue queue;
+
+  @BeforeEach
+  void start() {
+    BotProperties properties = new BotProperties();
+    // limits high enough not to slow the test down, ordering doesn't depend on them
+    properties.getOutbound().setGlobalPerSecond(100_000);
+    properties.getOutbound().setChatPerSecond(10_000);
+    properties.getOutbound().setChatBurst(1_000);
+    queue = new OutboundQueue(properties, ObservationRegistry.NOOP, new SimpleMeterRegistry());
+    queue.start();
+  }
+
+  @AfterEach
+  void stop() {
+    queue.destroy();
+  }
+
+  @Test
+  void runsCallsOfEachChatInSubmissionOrderOneAtATime() throws Exception {
+    Map<Long, List<Integer>> calls = new ConcurrentHashMap<>();
+    Map<Long, AtomicInteger> running = new ConcurrentHashMap<>();
+    AtomicInteger overlaps = new AtomicInteger();
+    CountDownLatch go = new CountDownLatch(1);
+    List<CompletableFuture<Integer>> futures = new CopyOnWriteArrayList<>();
+
+    // one submitting thread per chat, all of them racing each other
+    List<Thread> submitters = new ArrayList<>();
+    for (long chat = 1; chat <= CHATS; chat++) {
+      long chatId = chat;
+      calls.put(chatId, new CopyOnWriteArrayList<>());
+      running.put(chatId, new AtomicInteger());
+      submitters.add(Thread.ofVirtual().start(() -> {
+        awaitQuietly(go);
+        for (int i = 0; i < CALLS_PER_CHAT; i++) {
+          int n = i;
+          OutboundQueue.Priority priority = i % 3 == 0 ? OutboundQueue.Priority.MEDIA : OutboundQueue.Priority.TEXT;
+          futures.add(queue.submit(chatId, priority, "test", () -> {
+            if (running.get(chatId).incrementAndGet() > 1) {
+              overlaps.incrementAndGet();
+            }
+            calls.get(chatId).add(n);
+            Thread.sleep(0, 100_000);
+            running.get(chatId).decrementAndGet();
+            return n;
+          }));
+        }
+      }));
+    }
+    go.countDown();
+    for (Thread submitter : submitters) {
+      submitter.join();
+    }
+    CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+
+    List<Integer> expected = IntStream.range(0, CALLS_PER_CHAT).boxed().toList();
+    calls.forEach((chatId, order) -> assertEquals(expected, order, "chat " + chatId));
+    assertEquals(0, overlaps.get());
+    assertEquals(CHATS * CALLS_PER_CHAT, queue.sent());
+    assertEquals(0, queue.depth());
+  }
+
+  @Test
+  void failedCallDoesNotBlockTheChat() throws Exception {
+    CompletableFuture<Object> failed = queue.submit(1L, OutboundQueue.Priority.TEXT, "test", () -> {
+      throw new IllegalStateException("boom");
+    });
+    CompletableFuture<String> next = queue.submit(1L, OutboundQueue.Priority.TEXT, "test", () -> "ok");
+
+    assertEquals("ok", next.get(5, TimeUnit.SECONDS));
+    assertTrue(failed.isCompletedExceptionally());
+    assertEquals(1, queue.failed());
+  }
+
+  @Test
+  void cancelsQueuedCallsOnShutdown() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch started = new CountDownLatch(1);
+    queue.submit(1L, OutboundQueue.Priority.TEXT, "test", () -> {
+      started.countDown();
+      release.await();
+      return null;
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    CompletableFuture<String> queued = queue.submit(1L, OutboundQueue.Priority.TEXT, "test", () -> "late");
+
+    queue.destroy();
+    release.countDown();
+
+    assertThrows(CancellationException.class, () -> queued.get(5, TimeUnit.SECONDS));
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
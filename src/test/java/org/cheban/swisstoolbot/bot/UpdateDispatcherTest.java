@@ -0,0 +1,99 @@
+package org.cheban.swisstoolbot.bot;
+
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpdateDispatcherTest {
+  private UpdateDispatcher dispatcher;
+
+  @AfterEach
+  void stop() throws InterruptedException {
+    dispatcher.destroy();
+  }
+
+  @Test
+  void runsUpdatesOfEachChatInOrder() throws InterruptedException {
+    dispatcher = new UpdateDispatcher(properties(4, 1_000));
+    int chats = 16;
+    int updates = 100;
+    Map<Long, List<Integer>> processed = new ConcurrentHashMap<>();
+    AtomicInteger overlaps = new AtomicInteger();
+    Map<Long, AtomicInteger> running = new ConcurrentHashMap<>();
+    CountDownLatch done = new CountDownLatch(chats * updates);
+
+    for (int i = 0; i < updates; i++) {
+      for (long chatId = 1; chatId <= chats; chatId++) {
+        long chat = chatId;
+        int n = i;
+        processed.computeIfAbsent(chat, id -> new CopyOnWriteArrayList<>());
+        AtomicInteger active = running.computeIfAbsent(chat, id -> new AtomicInteger());
+        assertTrue(dispatcher.dispatch(chat, () -> {
+          if (active.incrementAndGet() > 1) {
+            overlaps.incrementAndGet();
+          }
+          processed.get(chat).add(n);
+          active.decrementAndGet();
+          done.countDown();
+        }));
+      }
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    List<Integer> expected = IntStream.range(0, updates).boxed().toList();
+    processed.forEach((chat, order) -> assertEquals(expected, order, "chat " + chat));
+    assertEquals(0, overlaps.get());
+  }
+
+  @Test
+  void dropsUpdatesBeyondTheChatBacklog() throws InterruptedException {
+    dispatcher = new UpdateDispatcher(properties(4, 2));
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(3);
+
+    dispatcher.dispatch(1L, () -> {
+      started.countDown();
+      await(release);
+      done.countDown();
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertTrue(dispatcher.dispatch(1L, done::countDown));
+    assertTrue(dispatcher.dispatch(1L, done::countDown));
+    assertFalse(dispatcher.dispatch(1L, done::countDown));
+    // other chats have backlogs of their own
+    assertTrue(dispatcher.dispatch(2L, () -> { }));
+
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(1, dispatcher.droppedUpdates());
+  }
+
+  private static BotProperties properties(int maxConcurrentUpdates, int chatBacklog) {
+    BotProperties properties = new BotProperties();
+    properties.getDispatcher().setMaxConcurrentUpdates(maxConcurrentUpdates);
+    properties.getDispatcher().setChatBacklog(chatBacklog);
+    return properties;
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
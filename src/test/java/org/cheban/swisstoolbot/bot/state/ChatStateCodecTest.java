@@ -0,0 +1,68 @@
+package org.cheban.swisstoolbot.bot.state;
+
+import org.cheban.swisstoolbot.objects.Units;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChatStateCodecTest {
+
+  @Test
+  void roundTrip() {
+    ChatState state = new ChatState(50.45, 30.52, "Kyiv", true, 7, 3, Units.IMPERIAL, "uk", "compact");
+
+    assertEquals(state, ChatStateCodec.decode(ByteBuffer.wrap(ChatStateCodec.encode(state))));
+  }
+
+  @Test
+  void roundTripWithoutOptionalFields() {
+    assertEquals(ChatState.DEFAULT, ChatStateCodec.decode(ByteBuffer.wrap(ChatStateCodec.encode(ChatState.DEFAULT))));
+  }
+
+  @Test
+  void decodesVersion1WithDefaultPreferences() {
+    ChatState state = ChatStateCodec.decode(ByteBuffer.wrap(version1(50.45, 30.52, "Kyiv", true, 7, 3)));
+
+    assertEquals(new ChatState(50.45, 30.52, "Kyiv", true, 7, 3, null, null, null), state);
+  }
+
+  @Test
+  void reencodesVersion1AsVersion2() {
+    ChatState migrated = ChatStateCodec.decode(ByteBuffer.wrap(version1(50.45, 30.52, null, false, 5, 10)))
+            .withUnits(Units.METRIC);
+    byte[] encoded = ChatStateCodec.encode(migrated);
+
+    assertEquals(2, encoded[0]);
+    assertEquals(migrated, ChatStateCodec.decode(ByteBuffer.wrap(encoded)));
+  }
+
+  @Test
+  void rejectsUnknownVersion() {
+    byte[] encoded = ChatStateCodec.encode(ChatState.DEFAULT);
+    encoded[0] = 3;
+
+    assertThrows(IllegalArgumentException.class, () -> ChatStateCodec.decode(ByteBuffer.wrap(encoded)));
+  }
+
+  /**
+   * A record as version 1 wrote it: no units, locale or forecast template.
+   */
+  static byte[] version1(double lat, double lon, String name, boolean keyboardVisible, int searchNum,
+                         int searchNumImg) {
+    byte[] nameBytes = name != null ? name.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    ByteBuffer buf = ByteBuffer.allocate(1 + 2 * Double.BYTES + 1 + 3 * Integer.BYTES + nameBytes.length);
+    buf.put((byte) 1)
+            .putDouble(lat)
+            .putDouble(lon)
+            .put((byte) (keyboardVisible ? 1 : 0))
+            .putInt(searchNum)
+            .putInt(searchNumImg)
+            .putInt(name != null ? nameBytes.length : -1)
+            .put(nameBytes);
+    return buf.array();
+  }
+}
@@ -0,0 +1,256 @@
+package org.cheban.swisstoolbot.bot.state;
+
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.cheban.swisstoolbot.objects.Units;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogChatStatePersistenceTest {
+  private static final int MAGIC = 0x43534C31;
+  private static final ChatState KYIV = new ChatState(50.45, 30.52, "Kyiv", false, 5, 10, Units.METRIC, "uk", null);
+  private static final ChatState LVIV = new ChatState(49.84, 24.03, "Lviv", true, 3, 6, null, null, "compact");
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void replaysStoredStates() {
+    Path file = dir.resolve("state.log");
+    try (LogChatStatePersistence log = open(file)) {
+      log.store(Map.of(1L, KYIV, 2L, LVIV));
+      log.store(Map.of(1L, KYIV.withSearchNum(8)));
+    }
+
+    try (LogChatStatePersistence log = open(file)) {
+      assertEquals(KYIV.withSearchNum(8), log.load(1L));
+      assertEquals(LVIV, log.load(2L));
+      assertNull(log.load(3L));
+    }
+  }
+
+  @Test
+  void truncatesTornTrailingRecord() throws IOException {
+    Path file = dir.resolve("state.log");
+    try (LogChatStatePersistence log = open(file)) {
+      log.store(Map.of(1L, KYIV));
+    }
+    long complete = Files.size(file);
+    // a crash in the middle of an append leaves the length and part of the record behind
+    append(file, ByteBuffer.allocate(Integer.BYTES + 3).putInt(40).put(new byte[3]).array());
+
+    try (LogChatStatePersistence log = open(file)) {
+      assertEquals(complete, Files.size(file));
+      assertEquals(KYIV, log.load(1L));
+      log.store(Map.of(2L, LVIV));
+    }
+
+    try (LogChatStatePersistence log = open(file)) {
+      assertEquals(KYIV, log.load(1L));
+      assertEquals(LVIV, log.load(2L));
+    }
+  }
+
+  @Test
+  void dropsTrailingRecordWithBadChecksum() throws IOException {
+    Path file = dir.resolve("state.log");
+    try (LogChatStatePersistence log = open(file)) {
+      log.store(Map.of(1L, KYIV));
+    }
+    long valid = Files.size(file);
+    try (LogChatStatePersistence log = open(file)) {
+      log.store(Map.of(1L, KYIV.withLocale("en")));
+    }
+    flipLastByte(file);
+
+    try (LogChatStatePersistence log = open(file)) {
+      assertEquals(valid, Files.size(file));
+      assertEquals(KYIV, log.load(1L));
+    }
+  }
+
+  @Test
+  void replaysAfterCompaction() throws IOException {
+    Path file = dir.resolve("state.log");
+    BotProperties.State properties = properties(file);
+    properties.setCompactionMinBytes(0);
+    properties.setCompactionRatio(2);
+    long uncompacted = Integer.BYTES + record(LVIV) + 10 * record(KYIV);
+    try (LogChatStatePersistence log = new LogChatStatePersistence(properties, new MapPersistence())) {
+      log.store(Map.of(2L, LVIV));
+      for (int i = 1; i <= 10; i++) {
+        log.store(Map.of(1L, KYIV.withSearchNum(i)));
+      }
+      assertTrue(Files.size(file) < uncompacted, "log was not compacted");
+    }
+    assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".compact")));
+
+    try (LogChatStatePersistence log = new LogChatStatePersistence(properties, new MapPersistence())) {
+      assertEquals(KYIV.withSearchNum(10), log.load(1L));
+      assertEquals(LVIV, log.load(2L));
+      log.store(Map.of(2L, LVIV.withSearchNumImg(9)));
+    }
+
+    try (LogChatStatePersistence log = open(file)) {
+      assertEquals(KYIV.withSearchNum(10), log.load(1L));
+      assertEquals(LVIV.withSearchNumImg(9), log.load(2L));
+    }
+  }
+
+  @Test
+  void keepsWorkingWhenCompactionCannotReplaceTheLog() {
+    Path file = dir.resolve("state.log");
+    BotProperties.State properties = properties(file);
+    properties.setCompactionMinBytes(0);
+    properties.setCompactionRatio(2);
+    AtomicBoolean failMove = new AtomicBoolean(true);
+    int failures = 0;
+    try (LogChatStatePersistence log = new LogChatStatePersistence(properties, new MapPersistence()) {
+      @Override
+      void move(Path source, Path target) throws IOException {
+        if (failMove.get()) {
+          throw new IOException("injected");
+        }
+        super.move(source, target);
+      }
+    }) {
+      log.store(Map.of(2L, LVIV));
+      for (int i = 1; i <= 10; i++) {
+        try {
+          log.store(Map.of(1L, KYIV.withSearchNum(i)));
+        } catch (UncheckedIOException e) {
+          failures++;
+        }
+      }
+      assertTrue(failures > 0, "compaction was not attempted");
+      assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".compact")));
+      assertEquals(KYIV.withSearchNum(10), log.load(1L));
+      assertEquals(LVIV, log.load(2L));
+
+      failMove.set(false);
+      log.store(Map.of(1L, KYIV.withSearchNum(11)));
+      assertEquals(KYIV.withSearchNum(11), log.load(1L));
+    }
+
+    try (LogChatStatePersistence log = open(file)) {
+      assertEquals(KYIV.withSearchNum(11), log.load(1L));
+      assertEquals(LVIV, log.load(2L));
+    }
+  }
+
+  @Test
+  void readsVersion1RecordsAndRewritesThemAsVersion2() throws IOException {
+    Path file = dir.resolve("state.log");
+    byte[] payload = ChatStateCodecTest.version1(50.45, 30.52, "Kyiv", true, 7, 3);
+    ByteBuffer log1 = ByteBuffer.allocate(Integer.BYTES + 2 * Integer.BYTES + Long.BYTES + payload.length);
+    log1.putInt(MAGIC).putInt(payload.length).putLong(1L).put(payload);
+    CRC32 crc = new CRC32();
+    crc.update(log1.array(), 2 * Integer.BYTES, Long.BYTES + payload.length);
+    log1.putInt((int) crc.getValue());
+    Files.write(file, log1.array());
+
+    ChatState migrated = new ChatState(50.45, 30.52, "Kyiv", true, 7, 3, null, null, null);
+    try (LogChatStatePersistence log = open(file)) {
+      assertEquals(migrated, log.load(1L));
+      log.store(Map.of(1L, migrated.withUnits(Units.IMPERIAL)));
+    }
+
+    try (LogChatStatePersistence log = open(file)) {
+      assertEquals(migrated.withUnits(Units.IMPERIAL), log.load(1L));
+    }
+  }
+
+  @Test
+  void readsUnknownChatsFromFallback() {
+    MapPersistence fallback = new MapPersistence();
+    fallback.states.put(5L, LVIV);
+
+    try (LogChatStatePersistence log = new LogChatStatePersistence(properties(dir.resolve("state.log")), fallback)) {
+      assertEquals(LVIV, log.load(5L));
+      log.store(Map.of(5L, KYIV));
+      assertEquals(KYIV, log.load(5L));
+    }
+  }
+
+  @Test
+  void visitsLoggedAndFallbackChats() {
+    MapPersistence fallback = new MapPersistence();
+    fallback.states.put(1L, LVIV);
+    fallback.states.put(5L, LVIV);
+
+    try (LogChatStatePersistence log = new LogChatStatePersistence(properties(dir.resolve("state.log")), fallback)) {
+      log.store(Map.of(1L, KYIV, 2L, KYIV.withSearchNum(2)));
+      Map<Long, ChatState> visited = new HashMap<>();
+      log.forEach(visited::put);
+
+      assertEquals(Map.of(1L, KYIV, 2L, KYIV.withSearchNum(2), 5L, LVIV), visited);
+    }
+  }
+
+  private static LogChatStatePersistence open(Path file) {
+    return new LogChatStatePersistence(properties(file), new MapPersistence());
+  }
+
+  private static BotProperties.State properties(Path file) {
+    BotProperties.State properties = new BotProperties.State();
+    properties.setFile(file);
+    properties.setDurabilityWindow(Duration.ZERO);
+    return properties;
+  }
+
+  private static int record(ChatState state) {
+    return Integer.BYTES + Long.BYTES + ChatStateCodec.encode(state).length + Integer.BYTES;
+  }
+
+  private static void append(Path file, byte[] bytes) throws IOException {
+    Files.write(file, bytes, StandardOpenOption.APPEND);
+  }
+
+  private static void flipLastByte(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer last = ByteBuffer.allocate(1);
+      channel.read(last, channel.size() - 1);
+      channel.write(ByteBuffer.wrap(new byte[]{(byte) ~last.get(0)}), channel.size() - 1);
+    }
+  }
+
+  private static class MapPersistence implements ChatStatePersistence {
+    private final Map<Long, ChatState> states = new HashMap<>();
+
+    @Override
+    public ChatState load(long chatId) {
+      return states.get(chatId);
+    }
+
+    @Override
+    public void store(Map<Long, ChatState> batch) {
+      states.putAll(batch);
+    }
+
+    @Override
+    public void forEach(ChatStateStore.Visitor visitor) {
+      states.forEach(visitor::visit);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package org.cheban.swisstoolbot.bot.state;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LongObjectMapTest {
+
+  @Test
+  void keepsEntriesAcrossResizes() {
+    LongObjectMap<String> map = new LongObjectMap<>();
+    for (long key = -5_000; key < 5_000; key++) {
+      map.put(key * 31, Long.toString(key));
+    }
+
+    assertEquals(10_000, map.size());
+    for (long key = -5_000; key < 5_000; key++) {
+      assertEquals(Long.toString(key), map.get(key * 31));
+    }
+    assertNull(map.get(1));
+    Map<Long, String> visited = new HashMap<>();
+    map.forEach(visited::put);
+    assertEquals(10_000, visited.size());
+  }
+
+  @Test
+  void computeReplacesValue() {
+    LongObjectMap<Integer> map = new LongObjectMap<>();
+
+    assertEquals(1, map.compute(7, v -> v == null ? 1 : v + 1));
+    assertEquals(2, map.compute(7, v -> v == null ? 1 : v + 1));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  void rejectsReservedKey() {
+    LongObjectMap<String> map = new LongObjectMap<>();
+
+    assertThrows(IllegalArgumentException.class, () -> map.get(Long.MIN_VALUE));
+  }
+
+  @Test
+  void concurrentLoadsOfSameKeyKeepFirstValue() throws InterruptedException {
+    LongObjectMap<Object> map = new LongObjectMap<>();
+    int threads = 8;
+    int keys = 2_000;
+    CountDownLatch go = new CountDownLatch(1);
+    List<Object[]> seen = new ArrayList<>();
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      Object[] values = new Object[keys];
+      seen.add(values);
+      workers.add(Thread.ofPlatform().start(() -> {
+        try {
+          go.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        for (int key = 0; key < keys; key++) {
+          values[key] = map.computeIfAbsent(key, k -> new Object());
+        }
+      }));
+    }
+    go.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    assertEquals(keys, map.size());
+    for (int key = 0; key < keys; key++) {
+      Object stored = map.get(key);
+      for (Object[] values : seen) {
+        assertSame(stored, values[key]);
+      }
+    }
+  }
+
+  @Test
+  void readersSeeEveryWrittenKeyDuringResizes() throws InterruptedException {
+    LongObjectMap<Long> map = new LongObjectMap<>();
+    int keys = 50_000;
+    AtomicInteger written = new AtomicInteger();
+    AtomicInteger misses = new AtomicInteger();
+    Thread writer = Thread.ofPlatform().start(() -> {
+      for (int key = 0; key < keys; key++) {
+        map.put(key, (long) key);
+        written.set(key + 1);
+      }
+    });
+    Thread reader = Thread.ofPlatform().start(() -> {
+      while (written.get() < keys) {
+        int upTo = written.get();
+        for (int key = Math.max(0, upTo - 64); key < upTo; key++) {
+          Long value = map.get(key);
+          if (value == null || value != key) {
+            misses.incrementAndGet();
+          }
+        }
+      }
+    });
+    writer.join();
+    reader.join();
+
+    assertEquals(0, misses.get());
+  }
+}
@@ -0,0 +1,37 @@
+package org.cheban.swisstoolbot.service.impl;
+
+import org.cheban.swisstoolbot.objects.Forecast;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OpenMeteoWeatherServiceTest {
+
+  @Test
+  void mapsWeatherCodesToIcons() {
+    Forecast forecast = OpenMeteoWeatherService.parse(new StringReader("""
+            {"current": {"temperature_2m": 21.5, "apparent_temperature": 20.1, "weather_code": 0},
+             "daily": {"time": ["2024-06-01"], "weather_code": [95],
+                       "temperature_2m_max": [25.0], "temperature_2m_min": [14.0],
+                       "apparent_temperature_max": [24.0], "apparent_temperature_min": [13.0]}}
+            """));
+
+    assertEquals("☀️", forecast.current().icon());
+    assertEquals("⛈️", forecast.days().get(0).icon());
+  }
+
+  @Test
+  void missingWeatherCodeIsUnknownRatherThanClearSky() {
+    Forecast forecast = OpenMeteoWeatherService.parse(new StringReader("""
+            {"current": {"temperature_2m": 21.5, "apparent_temperature": 20.1},
+             "daily": {"time": ["2024-06-01", "2024-06-02"], "weather_code": [null],
+                       "temperature_2m_max": [25.0, 26.0], "temperature_2m_min": [14.0, 15.0]}}
+            """));
+
+    assertEquals("❓", forecast.current().icon());
+    assertEquals("❓", forecast.days().get(0).icon());
+    assertEquals("❓", forecast.days().get(1).icon());
+  }
+}
@@ -0,0 +1,121 @@
+package org.cheban.swisstoolbot.util;
+
+import org.cheban.swisstoolbot.configuration.BotProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HostGuardTest {
+  private static final Duration MAX_TIMEOUT = Duration.ofSeconds(5);
+
+  @Test
+  void opensOnceTheFailureRateIsReached() throws Exception {
+    HostGuard guard = new HostGuard("example.com", properties(Duration.ofHours(1), 1), MAX_TIMEOUT);
+
+    call(guard, HostGuard.Outcome.SUCCESS);
+    call(guard, HostGuard.Outcome.FAILURE);
+    call(guard, HostGuard.Outcome.TIMEOUT);
+    // half of the calls failed, but there are fewer than minCalls yet
+    assertEquals(HostGuard.State.CLOSED, guard.state());
+
+    call(guard, HostGuard.Outcome.SUCCESS);
+    assertEquals(HostGuard.State.CLOSED, guard.state());
+    call(guard, HostGuard.Outcome.FAILURE);
+    assertEquals(HostGuard.State.OPEN, guard.state());
+
+    assertThrows(UpstreamUnavailableException.class, guard::acquire);
+    assertEquals(1, guard.rejectedOpen());
+  }
+
+  @Test
+  void closesAfterSuccessfulProbe() throws Exception {
+    HostGuard guard = new HostGuard("example.com", properties(Duration.ZERO, 1), MAX_TIMEOUT);
+    trip(guard);
+    assertEquals(HostGuard.State.OPEN, guard.state());
+
+    HostGuard.Permit probe = guard.acquire();
+    assertEquals(HostGuard.State.HALF_OPEN, guard.state());
+    probe.release(HostGuard.Outcome.SUCCESS);
+    assertEquals(HostGuard.State.CLOSED, guard.state());
+
+    // the failures before the circuit opened are forgotten
+    call(guard, HostGuard.Outcome.FAILURE);
+    assertEquals(HostGuard.State.CLOSED, guard.state());
+  }
+
+  @Test
+  void reopensAfterFailedProbe() throws Exception {
+    HostGuard guard = new HostGuard("example.com", properties(Duration.ZERO, 1), MAX_TIMEOUT);
+    trip(guard);
+
+    HostGuard.Permit probe = guard.acquire();
+    assertEquals(HostGuard.State.HALF_OPEN, guard.state());
+    probe.release(HostGuard.Outcome.TIMEOUT);
+    assertEquals(HostGuard.State.OPEN, guard.state());
+  }
+
+  @Test
+  void admitsOnlyConfiguredProbes() throws Exception {
+    HostGuard guard = new HostGuard("example.com", properties(Duration.ZERO, 2), MAX_TIMEOUT);
+    trip(guard);
+
+    HostGuard.Permit first = guard.acquire();
+    HostGuard.Permit second = guard.acquire();
+    assertThrows(UpstreamUnavailableException.class, guard::acquire);
+    assertEquals(1, guard.rejectedOpen());
+
+    // one failed probe reopens the circuit, the next call after openDuration probes again
+    second.release(HostGuard.Outcome.FAILURE);
+    assertEquals(HostGuard.State.OPEN, guard.state());
+    HostGuard.Permit third = guard.acquire();
+    assertEquals(HostGuard.State.HALF_OPEN, guard.state());
+    third.release(HostGuard.Outcome.SUCCESS);
+    assertEquals(HostGuard.State.CLOSED, guard.state());
+
+    // a probe finishing after the circuit closed changes nothing
+    first.release(HostGuard.Outcome.FAILURE);
+    assertEquals(HostGuard.State.CLOSED, guard.state());
+  }
+
+  @Test
+  void rejectsCallsBeyondTheBulkhead() throws Exception {
+    BotProperties.Resilience properties = properties(Duration.ofHours(1), 1);
+    properties.setMaxConcurrent(1);
+    properties.setMaxWait(Duration.ofMillis(10));
+    HostGuard guard = new HostGuard("example.com", properties, MAX_TIMEOUT);
+
+    HostGuard.Permit permit = guard.acquire();
+    assertEquals(1, guard.inFlight());
+    assertThrows(UpstreamUnavailableException.class, guard::acquire);
+    assertEquals(1, guard.rejectedFull());
+
+    permit.release(HostGuard.Outcome.SUCCESS);
+    // releasing twice must not free a second place
+    permit.release(HostGuard.Outcome.SUCCESS);
+    assertEquals(0, guard.inFlight());
+    guard.acquire().release(HostGuard.Outcome.SUCCESS);
+  }
+
+  private static BotProperties.Resilience properties(Duration openDuration, int halfOpenProbes) {
+    BotProperties.Resilience properties = new BotProperties.Resilience();
+    properties.setFailureWindow(10);
+    properties.setMinCalls(5);
+    properties.setFailureRateThreshold(0.5);
+    properties.setOpenDuration(openDuration);
+    properties.setHalfOpenProbes(halfOpenProbes);
+    return properties;
+  }
+
+  private static void trip(HostGuard guard) throws Exception {
+    for (int i = 0; i < 5; i++) {
+      call(guard, HostGuard.Outcome.FAILURE);
+    }
+  }
+
+  private static void call(HostGuard guard, HostGuard.Outcome outcome) throws Exception {
+    guard.acquire().release(outcome);
+  }
+}
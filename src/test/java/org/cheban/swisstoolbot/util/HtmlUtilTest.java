@@ -0,0 +1,52 @@
+package org.cheban.swisstoolbot.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HtmlUtilTest {
+
+  @Test
+  void keepsShortHtmlWhole() {
+    String link = HtmlUtil.buildLink("https://example.com", "Example");
+
+    assertEquals(List.of(link), HtmlUtil.split(link, 4096));
+  }
+
+  @Test
+  void reopensTagsAtTheCut() {
+    List<String> parts = HtmlUtil.split("<b>" + "x".repeat(20) + "</b>", 15);
+
+    assertEquals(List.of("<b>" + "x".repeat(8) + "</b>", "<b>" + "x".repeat(8) + "</b>", "<b>xxxx</b>"), parts);
+  }
+
+  @Test
+  void neverCutsEntities() {
+    List<String> parts = HtmlUtil.split("a".repeat(8) + "&amp;" + "b".repeat(8), 10);
+
+    assertEquals(List.of("a".repeat(8), "&amp;bbbbb", "bbb"), parts);
+  }
+
+  @Test
+  void dropsTagsLongerThanThePart() {
+    String url = "https://example.com/" + "p".repeat(100);
+    List<String> parts = HtmlUtil.split(HtmlUtil.buildLink(url, "title") + " tail", 50);
+
+    assertEquals(List.of("title tail"), parts);
+  }
+
+  @Test
+  void partsStayWithinTheLimit() {
+    String html = HtmlUtil.buildLink("https://example.com/a", "t".repeat(5000)) + "\n" +
+            "<b><i>" + "&lt;x&gt;".repeat(800) + "</i></b>";
+
+    List<String> parts = HtmlUtil.split(html, 4096);
+
+    assertTrue(parts.size() > 1);
+    parts.forEach(part -> assertTrue(part.length() <= 4096, "part of " + part.length()));
+    assertEquals(html.replaceAll("<[^>]+>", ""), String.join("", parts).replaceAll("<[^>]+>", ""));
+  }
+}
@@ -0,0 +1,192 @@
+package org.cheban.swisstoolbot.util;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpUtilTest {
+  private static final Map<String, String> HEADERS = Map.of("Accept", "text/plain");
+  private static final int FOLLOWERS = 4;
+
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final AtomicInteger requests = new AtomicInteger();
+  private final CountDownLatch arrived = new CountDownLatch(1);
+  private final CountDownLatch respond = new CountDownLatch(1);
+  private HttpServer server;
+  private volatile int status = 200;
+  private volatile byte[] body;
+
+  @BeforeEach
+  void start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.setExecutor(executor);
+    server.createContext("/", exchange -> {
+      requests.incrementAndGet();
+      arrived.countDown();
+      try {
+        respond.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+  }
+
+  @AfterEach
+  void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  @Test
+  void concurrentCallersShareOneRequest() throws Exception {
+    body = "shared".getBytes(StandardCharsets.UTF_8);
+    String url = url("/shared");
+
+    List<CompletableFuture<String>> results = race(() -> HttpUtil.getText(url, HEADERS));
+
+    for (CompletableFuture<String> result : results) {
+      assertEquals("shared", result.get(10, TimeUnit.SECONDS));
+    }
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  void followersGetWholeBodyWhenLeaderStopsEarly() throws Exception {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 20_000; i++) {
+      text.append("line ").append(i).append('\n');
+    }
+    body = text.toString().getBytes(StandardCharsets.UTF_8);
+    String url = url("/partial");
+
+    CompletableFuture<String> leader = CompletableFuture.supplyAsync(
+            () -> HttpUtil.getContent(url, HEADERS, HttpUtilTest::firstLine), executor);
+    assertTrue(arrived.await(10, TimeUnit.SECONDS));
+    List<CompletableFuture<String>> followers = join(() -> HttpUtil.getText(url, HEADERS));
+    respond.countDown();
+
+    assertEquals("line 0", leader.get(10, TimeUnit.SECONDS));
+    for (CompletableFuture<String> follower : followers) {
+      assertEquals(text.toString(), follower.get(10, TimeUnit.SECONDS));
+    }
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  void followersFetchThemselvesWhenBodyIsTooLargeToShare() throws Exception {
+    body = new byte[3 * 1024 * 1024];
+    String url = url("/large");
+
+    List<CompletableFuture<Integer>> results = race(() -> HttpUtil.getContent(url, HEADERS, HttpUtilTest::length));
+
+    for (CompletableFuture<Integer> result : results) {
+      assertEquals(body.length, result.get(10, TimeUnit.SECONDS));
+    }
+    assertEquals(1 + FOLLOWERS, requests.get());
+  }
+
+  @Test
+  void followersGetLeadersStatus() throws Exception {
+    status = 404;
+    body = "missing".getBytes(StandardCharsets.UTF_8);
+    String url = url("/missing");
+    List<Integer> statuses = new ArrayList<>();
+
+    List<CompletableFuture<String>> results = race(() -> {
+      AtomicInteger seen = new AtomicInteger();
+      String text = HttpUtil.getContent(url, HEADERS, HttpUtilTest::firstLine, seen::set);
+      synchronized (statuses) {
+        statuses.add(seen.get());
+      }
+      return text;
+    });
+
+    for (CompletableFuture<String> result : results) {
+      assertNull(result.get(10, TimeUnit.SECONDS));
+    }
+    assertEquals(1, requests.get());
+    assertEquals(List.of(404, 404, 404, 404, 404), statuses);
+  }
+
+  /**
+   * Starts a leader, lets {@link #FOLLOWERS} callers join its flight and only then lets the server respond.
+   */
+  private <T> List<CompletableFuture<T>> race(Supplier<T> call) throws InterruptedException {
+    List<CompletableFuture<T>> results = new ArrayList<>();
+    results.add(CompletableFuture.supplyAsync(call, executor));
+    assertTrue(arrived.await(10, TimeUnit.SECONDS));
+    results.addAll(join(call));
+    respond.countDown();
+    return results;
+  }
+
+  private <T> List<CompletableFuture<T>> join(Supplier<T> call) throws InterruptedException {
+    long joined = HttpUtil.deduplicatedCalls();
+    List<CompletableFuture<T>> followers = new ArrayList<>();
+    for (int i = 0; i < FOLLOWERS; i++) {
+      followers.add(CompletableFuture.supplyAsync(call, executor));
+    }
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (HttpUtil.deduplicatedCalls() < joined + FOLLOWERS && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(joined + FOLLOWERS, HttpUtil.deduplicatedCalls());
+    // a follower is counted just before it marks the flight joined
+    Thread.sleep(100);
+    return followers;
+  }
+
+  private String url(String path) {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+  }
+
+  private static String firstLine(Reader reader) {
+    try {
+      return new BufferedReader(reader).readLine();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static Integer length(Reader reader) {
+    try {
+      int length = 0;
+      char[] buf = new char[8192];
+      for (int n; (n = reader.read(buf)) >= 0; ) {
+        length += n;
+      }
+      return length;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
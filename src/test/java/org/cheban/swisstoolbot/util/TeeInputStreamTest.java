@@ -0,0 +1,79 @@
+package org.cheban.swisstoolbot.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TeeInputStreamTest {
+  private static final byte[] BODY = "0123456789".getBytes(StandardCharsets.US_ASCII);
+
+  @Test
+  void copiesStreamReadToItsEnd() throws IOException {
+    TeeInputStream tee = new TeeInputStream(new ByteArrayInputStream(BODY), 100);
+
+    assertArrayEquals(BODY, tee.readAllBytes());
+    assertTrue(tee.isComplete());
+    assertArrayEquals(BODY, tee.copy());
+  }
+
+  @Test
+  void drainsTheRestOfPartlyReadStream() throws IOException {
+    TeeInputStream tee = new TeeInputStream(new ByteArrayInputStream(BODY), 100);
+    assertEquals('0', tee.read());
+    assertEquals(3, tee.read(new byte[3]));
+    assertFalse(tee.isComplete());
+    assertNull(tee.copy());
+
+    tee.drain();
+
+    assertTrue(tee.isComplete());
+    assertArrayEquals(BODY, tee.copy());
+  }
+
+  @Test
+  void copiesSkippedBytes() throws IOException {
+    TeeInputStream tee = new TeeInputStream(new ByteArrayInputStream(BODY), 100);
+
+    assertEquals(4, tee.skip(4));
+    assertEquals('4', tee.read());
+    tee.drain();
+
+    assertArrayEquals(BODY, tee.copy());
+  }
+
+  @Test
+  void dropsCopyOverLimit() throws IOException {
+    TeeInputStream tee = new TeeInputStream(new ByteArrayInputStream(BODY), 4);
+    tee.read(new byte[5]);
+
+    // nothing more can be shared, so there is nothing left to drain for
+    assertTrue(tee.isComplete());
+    tee.drain();
+    assertNull(tee.copy());
+    assertEquals('5', tee.read());
+  }
+
+  @Test
+  void remembersFailedRead() {
+    TeeInputStream tee = new TeeInputStream(new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("reset");
+      }
+    }, 100);
+
+    assertThrows(IOException.class, tee::read);
+    assertTrue(tee.isFailed());
+    assertNull(tee.copy());
+  }
+}